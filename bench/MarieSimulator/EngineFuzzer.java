@@ -0,0 +1,623 @@
+// File:        EngineFuzzer.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+public class EngineFuzzer {
+/******************************************************************************************
+*  Differential fuzzing of the ways this simulator can run a program.  The reference is   *
+*  a plain MarieSim, i.e., fetchNext() and execute() one instruction at a time;  every    *
+*  other engine promises to end a run exactly as the reference does:                      *
+*                                                                                         *
+*     fastloops, fuse, fastloops+fuse   CountingLoop and Superinstructions, which must    *
+*                                       leave every register, memory and count as is      *
+*     undo                              the watched loop that records an UndoLog          *
+*     sanitize                          the watched loop with a Sanitizer (its findings   *
+*                                       go elsewhere, so the output must match)           *
+*     loopcheck, loopcheck+fastloops+fuse   a LoopDetector, which turns fusion off;  it   *
+*                                       is compared only on runs the reference doesn't    *
+*                                       end at the instruction limit, since on those it   *
+*                                       may rightly halt sooner with error 10             *
+*     quantum, quantum+fastloops+fuse   runs made QUANTUM instructions at a time with     *
+*                                       runQuantum(), as a MachineScheduler makes them,   *
+*                                       so that quanta end in the middle of loops         *
+*     extended+fastloops+fuse           an extended machine (see PagedMemory), where      *
+*                                       pointers and opcode F mean something else:  so    *
+*                                       its reference is a plain extended machine         *
+*     lockstep                          LockstepBatch, which promises each lane's output, *
+*                                       final state, error code and instruction count     *
+*     multiprocessor                    a one-CPU Multiprocessor with volatile memory,    *
+*                                       the same as the reference apart from its status   *
+*                                       messages and opcode F (SWAP, not an error)        *
+*                                                                                         *
+*  Each case is a memory image and LANES inputs.  Half of the images are random, with     *
+*  the edge cases weighted in:  code at the top of memory so that the PC wraps,           *
+*  SKIPCOND with condition 3, opcode F, and data such as 32767 and -32768 that the        *
+*  registers' setValue() must wrap.  The rest are mutations (changed words, flipped       *
+*  bits, swapped words) of a seed program:  the Warmup program, a few loops that the      *
+*  fast paths recognize, and any .mex files named on the command line.  Inputs are short  *
+*  lists of ints, sometimes out of range, malformed or missing.                           *
+*                                                                                         *
+*  Cases run in parallel on a thread pool, every engine on every case, and each case's    *
+*  Random is seeded from the seed and the case number, so a run can be repeated.  A       *
+*  mismatch is shrunk -- words zeroed, lanes and input values dropped, the instruction    *
+*  limit cut -- for as long as the engine still disagrees with the reference, and the     *
+*  result is printed and written to fuzz-<case>.mex and fuzz-<case>-<lane>.in.  The exit  *
+*  status is 1 if there was any mismatch.  This class is not part of the interpreter      *
+*  build; run it with:                                                                    *
+*                                                                                         *
+*     javac -d /tmp/marie src/MarieSimulator/*.java bench/MarieSimulator/*.java           *
+*     java -cp /tmp/marie MarieSimulator.EngineFuzzer [seed [cases [threads]]] [seeds.mex]*
+******************************************************************************************/
+  static final int  LANES = 4;               // Inputs per case.
+  static final long LIMIT = 5000;            // Instruction limit of a run.
+  static final int  MAX_REPORTS = 10;        // Mismatches shrunk and printed.
+  static final long QUANTUM = 7;             // Of the quantum engines.
+  static final int  EXTENDED_WORDS = 1 << 16;   // Memory of the extended engines.
+  static final int  RESULT = 0,              // What an engine promises to match:  the
+                    VALUES = 1,              // outcome, the machine apart from status
+                    FULL   = 2;              // messages, or everything.
+
+  static class Outcome {
+/******************************************************************************************
+*  The end of one run, as seen by the comparison.                                         *
+******************************************************************************************/
+    int     state, error, ac, pc, ir, mar, mbr, memoryHash;
+    long    instructions, cycles, inputs, outputs;
+    String  output;
+
+    static Outcome of(MarieSim m, ByteArrayOutputStream output) {
+      Outcome o = new Outcome();
+      o.state = m.machineState;
+      o.error = m.errorCode;
+      o.ac = m.regAC.getValue();
+      o.pc = m.regPC.getValue();
+      o.ir = m.regIR.getValue();
+      o.mar = m.regMAR.getValue();
+      o.mbr = m.regMBR.getValue();
+      o.memoryHash = Arrays.hashCode(m.memory);
+      o.instructions = m.instructionCount;
+      o.cycles = m.cycleCount;
+      o.inputs = m.inputCount;
+      o.outputs = m.outputCount;
+      o.output = output.toString();
+      return o;
+    } // of()
+
+    String key(int level) {
+      if (level == RESULT)
+        return "state " + state + " error " + error + " instructions " + instructions
+               + " output [" + output + "]";
+      return "state " + state + " error " + error + " instructions " + instructions
+             + " cycles " + cycles + " in " + inputs + " out " + outputs
+             + " AC " + ac + " PC " + pc + " IR " + ir + " MAR " + mar + " MBR " + mbr
+             + " memory " + Integer.toHexString(memoryHash)
+             + " output [" + ((level == FULL) ? output : values(output)) + "]";
+    } // key()
+
+    static String values(String output) {      // Without status messages, which begin
+      StringBuffer sb = new StringBuffer();    // with a blank.
+      StringTokenizer lines = new StringTokenizer(output, "\n");
+      while (lines.hasMoreTokens()) {
+        String line = lines.nextToken();
+        if (!line.startsWith(" "))
+          sb.append(line).append('\n');
+      } // while
+      return sb.toString();
+    } // values()
+  } // Outcome
+
+
+  static abstract class Engine {
+    String      name;
+    int        level;
+    Engine reference = REFERENCE;            // What it must match (null for REFERENCE).
+
+    Engine(String name, int level) {
+      this.name = name;
+      this.level = level;
+    } // Engine()
+
+    abstract Outcome[] run(byte[] mex, byte[][] inputs, long limit);
+
+    boolean comparable(Outcome reference) {  // Whether this run is meant to match.
+      return true;
+    } // comparable()
+  } // Engine
+
+
+  static class Single extends Engine {
+/******************************************************************************************
+*  Runs each input on a MarieSim of its own, loaded and run as JudgeServer does.          *
+******************************************************************************************/
+    Single(String name) {
+      super(name, FULL);
+    } // Single()
+
+    void configure(MarieSim m) { }
+
+    void start(MarieSim m) {
+      m.runProgram();
+    } // start()
+
+    Outcome[] run(byte[] mex, byte[][] inputs, long limit) {
+      Outcome[] outcomes = new Outcome[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MarieSim m = new MarieSim(new ByteArrayInputStream(inputs[i]), new PrintStream(output));
+        m.dumpOnError = false;
+        m.instructionLimit = limit;
+        configure(m);
+        m.loadProgram(new ByteArrayInputStream(mex));
+        m.machineState = MarieSim.MARIE_RUNNING;
+        start(m);
+        m.out.flush();
+        outcomes[i] = Outcome.of(m, output);
+      } // for
+      return outcomes;
+    } // run()
+  } // Single
+
+
+  static final Engine REFERENCE = new Single("reference");
+
+  static final Engine EXTENDED = new Single("extended") {
+    void configure(MarieSim m) { m.extendedMemory = new PagedMemory(EXTENDED_WORDS); }
+  };
+
+  static final PrintStream NOWHERE = new PrintStream(new OutputStream() {
+    public void write(int b) { }
+    public void write(byte[] b, int off, int len) { }
+  });
+
+
+  static void runInQuanta(MarieSim m) {
+    m.beginRun();
+    while (m.runQuantum(QUANTUM))
+      ;
+    m.endRun();
+  } // runInQuanta()
+
+  static final Engine[] ENGINES = {
+    new Single("fastloops") {
+      void configure(MarieSim m) { m.fastLoops = true; }
+    },
+    new Single("fuse") {
+      void configure(MarieSim m) { m.fuse = true; }
+    },
+    new Single("fastloops+fuse") {
+      void configure(MarieSim m) { m.fastLoops = true;  m.fuse = true; }
+    },
+    new Single("undo") {
+      void configure(MarieSim m) { m.undoLog = new UndoLog(64); }
+    },
+    new Single("sanitize") {
+      void configure(MarieSim m) { m.sanitizer = new Sanitizer(NOWHERE, ""); }
+    },
+    new Single("loopcheck") {
+      void configure(MarieSim m) { m.loopDetector = new LoopDetector(); }
+
+      boolean comparable(Outcome reference) {
+        return reference.error != 9;
+      }
+    },
+    new Single("loopcheck+fastloops+fuse") {
+      void configure(MarieSim m) {
+        m.loopDetector = new LoopDetector();
+        m.fastLoops = true;
+        m.fuse = true;
+      }
+
+      boolean comparable(Outcome reference) {
+        return reference.error != 9;
+      }
+    },
+    new Single("quantum") {
+      void start(MarieSim m) { runInQuanta(m); }
+    },
+    new Single("quantum+fastloops+fuse") {
+      void configure(MarieSim m) { m.fastLoops = true;  m.fuse = true; }
+
+      void start(MarieSim m) { runInQuanta(m); }
+    },
+    new Single("extended+fastloops+fuse") {
+      {
+        reference = EXTENDED;
+      }
+
+      void configure(MarieSim m) {
+        m.extendedMemory = new PagedMemory(EXTENDED_WORDS);
+        m.fastLoops = true;
+        m.fuse = true;
+      }
+    },
+    new Engine("lockstep", RESULT) {
+      Outcome[] run(byte[] mex, byte[][] inputs, long limit) {
+        InputStream[] ins = new InputStream[inputs.length];
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[inputs.length];
+        PrintStream[] outs = new PrintStream[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+          ins[i] = new ByteArrayInputStream(inputs[i]);
+          outs[i] = new PrintStream(outputs[i] = new ByteArrayOutputStream());
+        } // for
+        LockstepBatch batch = new LockstepBatch(ins, outs);
+        batch.instructionLimit = limit;
+        if (batch.load(mex))
+          batch.run();
+        Outcome[] outcomes = new Outcome[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+          outs[i].flush();
+          outcomes[i] = new Outcome();
+          outcomes[i].state = batch.machineState[i];
+          outcomes[i].error = batch.errorCode[i];
+          outcomes[i].instructions = batch.instructionCount[i];
+          outcomes[i].output = outputs[i].toString();
+        } // for
+        return outcomes;
+      }
+    },
+    new Engine("multiprocessor", VALUES) {
+      Outcome[] run(byte[] mex, byte[][] inputs, long limit) {
+        Outcome[] outcomes = new Outcome[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+          ByteArrayOutputStream output = new ByteArrayOutputStream();
+          PrintStream out = new PrintStream(output);
+          Multiprocessor system = new Multiprocessor(1, new ByteArrayInputStream(inputs[i]),
+                                                     out);
+          system.instructionLimit = limit;
+          system.interleaved = true;
+          if (system.load(new ByteArrayInputStream(mex)))
+            system.run();
+          out.flush();
+          outcomes[i] = Outcome.of(system.cpus[0], output);
+        } // for
+        return outcomes;
+      }
+
+      boolean comparable(Outcome reference) {  // Opcode F is SWAP on a CPU.
+        return (reference.error != 1) || (((reference.ir >> 12) & 0x000F) != 15);
+      }
+    }
+  };
+
+
+  static class Case {
+    int      number;
+    short[]  image = new short[MarieSim.MAX_MARIE_ADDR+1];
+    int      start;                          // First address, where the run begins.
+    byte[][] inputs;
+    long     limit = LIMIT;
+
+    Case copy() {
+      Case c = new Case();
+      c.number = number;
+      c.image = image.clone();
+      c.start = start;
+      c.inputs = (inputs == null) ? null : inputs.clone();
+      c.limit = limit;
+      return c;
+    } // copy()
+  } // Case
+
+
+  static byte[] mex(Case c) {
+/******************************************************************************************
+*  The .mex image of c:  a code line for every non-zero word, the first address first.    *
+******************************************************************************************/
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+      for (int i = 0; i <= MarieSim.MAX_MARIE_ADDR; i++) {
+        int addr = (c.start + i) & MarieSim.MAX_MARIE_ADDR;
+        if ((i > 0) && (c.image[addr] == 0))
+          continue;
+        AssembledCodeLine line = new AssembledCodeLine();
+        String word = String.format("%04X", c.image[addr] & 0xFFFF);
+        line.lineNo = String.format("%03X", addr);
+        line.hexCode = word.substring(0, 1);
+        line.operand = word.substring(1);
+        line.sourceLine = "HEX " + word;
+        objOut.writeObject(line);
+      } // for
+      objOut.close();
+      return bytes.toByteArray();
+    }
+    catch (IOException e) {                    // Can't happen with a byte array.
+      throw new IllegalStateException(e.toString());
+    }
+  } // mex()
+
+
+  static ArrayList seeds = new ArrayList();  // Of Cases whose images get mutated.
+
+  static void addSeed(int start, int[] words) {
+    Case c = new Case();
+    c.start = start;
+    for (int i = 0; i < words.length; i++)
+      c.image[(start + i) & MarieSim.MAX_MARIE_ADDR] = (short) words[i];
+    seeds.add(c);
+  } // addSeed()
+
+
+  static void builtInSeeds() {
+    int[] warmup = new int[Warmup.PROGRAM.length];
+    for (int i = 0; i < warmup.length; i++)        // Its trip count is left blank;
+      warmup[i] = (Warmup.PROGRAM[i][3] == null)   // 20 trips will do here.
+                  ? 20 : Integer.parseInt(Warmup.PROGRAM[i][3], 16);
+    addSeed(0, warmup);
+    addSeed(0x100, new int[] { 0x5000, 0x2108, 0x1107, 0x3109, 0x2107,  // Counting loop
+                               0x4108, 0x8000, 0x9102, 0x1107, 0x6000,  // up to N, as in
+                               0x7000 });                               // CountingLoop.
+    addSeed(0x0FFA, new int[] { 0x100A, 0x400B, 0x200A, 0x8400, 0x9FFA,  // Counting down,
+                                0x6000, 0x7000, 0, 0, 0, 0, 0, 0, 0, 0,  // wrapping past
+                                0, 5, 1 });                              // FFF.
+    addSeed(0x200, new int[] { 0x5000, 0x0206, 0x6000, 0x8000, 0x9200, 0x7000,  // JnS/JUMPI,
+                               0x0000, 0x3209, 0xC206, 0x0002 });              // OP_RETURN.
+    addSeed(0x300, new int[] { 0xD30A, 0xB30B, 0xE30A, 0x130A, 0x330C, 0x230A,  // LOADI,
+                               0x430D, 0x8400, 0x9300, 0x7000, 0x0320, 0x0321,  // ADDI and
+                               0x0001, 0x0330 });                             // STOREI.
+  } // builtInSeeds()
+
+
+  static void readSeed(String fileName) throws IOException {
+    MarieSim m = new MarieSim(new ByteArrayInputStream(new byte[0]),
+                              new PrintStream(new ByteArrayOutputStream()));
+    m.loadProgram(new FileInputStream(fileName));
+    if (m.errorFound)
+      throw new IOException(fileName + " can't be loaded");
+    Case c = new Case();
+    c.start = m.firstAddress;
+    System.arraycopy(m.memory, 0, c.image, 0, c.image.length);
+    seeds.add(c);
+  } // readSeed()
+
+
+  static Case generate(long seed, int number) {
+    Random r = new Random(seed * 1000003 + number);
+    Case c;
+    if (r.nextBoolean() || seeds.isEmpty())
+      c = randomImage(r);
+    else {
+      c = ((Case) seeds.get(r.nextInt(seeds.size()))).copy();
+      for (int n = 1 + r.nextInt(4); n > 0; n--)
+        mutate(c, r);
+    }
+    c.number = number;
+    c.inputs = new byte[LANES][];
+    for (int l = 0; l < LANES; l++)
+      c.inputs[l] = randomInput(r);
+    return c;
+  } // generate()
+
+
+  static final int[] OPCODES = { 0, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 6, 7, 8, 8, 8, 9, 9,
+                                 10, 11, 12, 13, 14 };
+  static final int[] EXTREMES = { 0, 1, -1, 2, 32767, -32768, 0x0FFF, 0x1000, -4096 };
+
+  static Case randomImage(Random r) {
+    Case c = new Case();
+    int length = 4 + r.nextInt(44),
+        data = r.nextInt(0x1000);
+    c.start = (r.nextInt(4) == 0) ? 0x1000 - 1 - r.nextInt(length) : r.nextInt(0x100);
+    for (int i = 0; i < length; i++)
+      c.image[(c.start + i) & MarieSim.MAX_MARIE_ADDR] = (short) randomWord(r, c.start,
+                                                                            length, data);
+    for (int i = 0; i < 16; i++)
+      c.image[(data + i) & MarieSim.MAX_MARIE_ADDR] = (short) randomData(r, c.start, length);
+    return c;
+  } // randomImage()
+
+
+  static int randomWord(Random r, int start, int length, int data) {
+    int opcode = (r.nextInt(64) == 0) ? 15 : OPCODES[r.nextInt(OPCODES.length)],
+        operand;
+    switch (r.nextInt(4)) {
+      case 0:  operand = start + r.nextInt(length);   break;
+      case 1:  operand = r.nextInt(0x1000);           break;
+      default: operand = data + r.nextInt(16);
+    } // switch
+    if (opcode == 8)
+      operand = ((r.nextInt(16) == 0) ? 3 : r.nextInt(3)) << 10;
+    return (opcode << 12) | (operand & 0x0FFF);
+  } // randomWord()
+
+
+  static int randomData(Random r, int start, int length) {
+    switch (r.nextInt(3)) {
+      case 0:  return EXTREMES[r.nextInt(EXTREMES.length)];
+      case 1:  return (start + r.nextInt(length)) & MarieSim.MAX_MARIE_ADDR;
+      default: return r.nextInt(21) - 10;
+    } // switch
+  } // randomData()
+
+
+  static void mutate(Case c, Random r) {
+    int addr = (c.start + r.nextInt(24)) & MarieSim.MAX_MARIE_ADDR;
+    switch (r.nextInt(5)) {
+      case 0:  c.image[addr] ^= (short) (1 << r.nextInt(16));                        break;
+      case 1:  c.image[addr] = (short) ((c.image[addr] & 0x0FFF)
+                                        | (OPCODES[r.nextInt(OPCODES.length)] << 12)); break;
+      case 2:  c.image[addr] = (short) ((c.image[addr] & 0xF000) | r.nextInt(0x1000)); break;
+      case 3:  int other = (c.start + r.nextInt(24)) & MarieSim.MAX_MARIE_ADDR;
+               short word = c.image[addr];
+               c.image[addr] = c.image[other];
+               c.image[other] = word;                                              break;
+      default: c.image[addr] = (short) EXTREMES[r.nextInt(EXTREMES.length)];
+    } // switch
+  } // mutate()
+
+
+  static byte[] randomInput(Random r) {
+    StringBuffer sb = new StringBuffer();
+    for (int n = r.nextInt(8); n > 0; n--)
+      switch (r.nextInt(10)) {
+        case 0:  sb.append(EXTREMES[r.nextInt(EXTREMES.length)]).append('\n');  break;
+        case 1:  sb.append(r.nextBoolean() ? "40000\n" : "x\n");               break;
+        default: sb.append(r.nextInt(21) - 10).append('\n');
+      } // switch
+    return sb.toString().getBytes();
+  } // randomInput()
+
+
+  static Engine mismatch(Case c) {
+/******************************************************************************************
+*  Returns the first engine that ends a run of c differently from its reference, or       *
+*  null if they all agree.  Each reference is run once.                                   *
+******************************************************************************************/
+    byte[] mex = mex(c);
+    HashMap expected = new HashMap();          // Reference -> its Outcome[].
+    for (int e = 0; e < ENGINES.length; e++) {
+      Outcome[] against = (Outcome[]) expected.get(ENGINES[e].reference);
+      if (against == null) {
+        against = ENGINES[e].reference.run(mex, c.inputs, c.limit);
+        expected.put(ENGINES[e].reference, against);
+      }
+      if (differs(ENGINES[e], against, ENGINES[e].run(mex, c.inputs, c.limit)))
+        return ENGINES[e];
+    } // for
+    return null;
+  } // mismatch()
+
+
+  static boolean differs(Engine engine, Outcome[] expected, Outcome[] actual) {
+    for (int i = 0; i < expected.length; i++)
+      if (engine.comparable(expected[i])
+          && !expected[i].key(engine.level).equals(actual[i].key(engine.level)))
+        return true;
+    return false;
+  } // differs()
+
+
+  static boolean fails(Engine engine, Case c) {
+    byte[] mex = mex(c);
+    return differs(engine, engine.reference.run(mex, c.inputs, c.limit),
+                   engine.run(mex, c.inputs, c.limit));
+  } // fails()
+
+
+  static Case shrink(Engine engine, Case c) {
+/******************************************************************************************
+*  Makes c as small as it can while engine still disagrees with its reference on it.      *
+******************************************************************************************/
+    boolean smaller = true;
+    while (smaller) {
+      smaller = false;
+      for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++) {
+        if ((c.image[addr] == 0) || (addr == c.start))
+          continue;
+        Case t = c.copy();
+        t.image[addr] = 0;
+        if (fails(engine, t)) {
+          c = t;
+          smaller = true;
+        }
+      } // for
+      for (int l = c.inputs.length - 1; (l >= 0) && (c.inputs.length > 1); l--) {
+        Case t = c.copy();
+        t.inputs = new byte[c.inputs.length - 1][];
+        for (int i = 0, j = 0; i < c.inputs.length; i++)
+          if (i != l)
+            t.inputs[j++] = c.inputs[i];
+        if (fails(engine, t)) {
+          c = t;
+          smaller = true;
+        }
+      } // for
+      for (int l = 0; l < c.inputs.length; l++) {
+        String[] values = new String(c.inputs[l]).split("\n");
+        for (int v = values.length - 1; (v >= 0) && (values[0].length() > 0); v--) {
+          StringBuffer sb = new StringBuffer();
+          for (int i = 0; i < values.length; i++)
+            if (i != v)
+              sb.append(values[i]).append('\n');
+          Case t = c.copy();
+          t.inputs[l] = sb.toString().getBytes();
+          if (fails(engine, t)) {
+            c = t;
+            smaller = true;
+            break;                               // values is out of date.
+          }
+        } // for
+      } // for
+      for (long limit = c.limit / 2; limit > 0; limit /= 2) {
+        Case t = c.copy();
+        t.limit = limit;
+        if (!fails(engine, t))
+          break;
+        c = t;
+        smaller = true;
+      } // for
+    } // while
+    return c;
+  } // shrink()
+
+
+  static void report(Engine engine, Case c) throws IOException {
+    byte[] mex = mex(c);
+    Outcome[] expected = engine.reference.run(mex, c.inputs, c.limit),
+              actual = engine.run(mex, c.inputs, c.limit);
+    StringBuffer sb = new StringBuffer();
+    sb.append(" Case ").append(c.number).append(":  ").append(engine.name)
+      .append(" differs from ").append(engine.reference.name)
+      .append(" with instruction limit ").append(c.limit)
+      .append(".  Program (first address ").append(String.format("%03X", c.start))
+      .append("):\n");
+    for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++)
+      if ((c.image[addr] != 0) || (addr == c.start))
+        sb.append(String.format("   %03X  %04X%n", addr, c.image[addr] & 0xFFFF));
+    for (int l = 0; l < c.inputs.length; l++) {
+      sb.append("   Input ").append(l).append(":  ")
+        .append(new String(c.inputs[l]).replace('\n', ' ')).append('\n');
+      sb.append("     ").append(engine.reference.name).append(": ")
+        .append(expected[l].key(engine.level)).append('\n');
+      sb.append("     ").append(engine.name).append(": ")
+        .append(actual[l].key(engine.level)).append('\n');
+      FileOutputStream in = new FileOutputStream("fuzz-" + c.number + "-" + l + ".in");
+      in.write(c.inputs[l]);
+      in.close();
+    } // for
+    FileOutputStream out = new FileOutputStream("fuzz-" + c.number + MarieSim.MEX_TYPE);
+    out.write(mex);
+    out.close();
+    System.out.print(sb);
+  } // report()
+
+
+  public static void main(String[] args) throws Exception {
+    long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+    int  cases = (args.length > 1) ? Integer.parseInt(args[1]) : 10000,
+         threads = (args.length > 2) ? Integer.parseInt(args[2])
+                                     : Runtime.getRuntime().availableProcessors();
+    builtInSeeds();
+    for (int i = 3; i < args.length; i++)
+      readSeed(args[i]);
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    ArrayList results = new ArrayList();
+    for (int n = 0; n < cases; n++) {
+      final Case c = generate(seed, n);
+      results.add(pool.submit(new Callable() {
+        public Object call() { return mismatch(c); }
+      }));
+    } // for
+    int found = 0;
+    for (int n = 0; (n < cases) && (found < MAX_REPORTS); n++) {
+      Engine engine = (Engine) ((Future) results.get(n)).get();
+      if (engine != null) {
+        found++;
+        report(engine, shrink(engine, generate(seed, n)));
+      }
+    } // for
+    pool.shutdownNow();
+    System.out.println(" " + cases + " cases on " + (ENGINES.length + 2) + " engines, "
+                       + found + ((found < MAX_REPORTS) ? "" : " or more")
+                       + " mismatches, in "
+                       + String.format("%.1f", (System.nanoTime() - start) / 1e9)
+                       + " seconds.");
+    System.exit((found > 0) ? 1 : 0);          // For scripts:  non-zero on a mismatch.
+  } // main()
+} // EngineFuzzer
@@ -0,0 +1,71 @@
+// File:        InteractiveBenchmark.java
+// JDK Version: 9
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+
+public class InteractiveBenchmark implements Interactor {
+/******************************************************************************************
+*  Measures the cost of one INPUT/OUTPUT round trip between a machine and an Interactor   *
+*  in an InteractiveRun.  The program echoes each value it reads until it reads a zero.   *
+*  This class is not part of the interpreter build; run it with:                          *
+*                                                                                         *
+*     javac -d /tmp/marie src/MarieSimulator/*.java bench/MarieSimulator/*.java           *
+*     java -cp /tmp/marie MarieSimulator.InteractiveBenchmark [round trips]               *
+*                                                                                         *
+*  It is also an example of an Interactor, of the kind "MarieSim -interact" runs.         *
+******************************************************************************************/
+  static final String[] ECHO = { "5000",     // Top   INPUT
+                                 "8400",     //       SKIPCOND 400
+                                 "9004",     //       JUMP Echo
+                                 "7000",     //       HALT
+                                 "6000",     // Echo  OUTPUT
+                                 "9000" };   //       JUMP Top
+
+  static byte[] echoProgram() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+    for (int addr = 0; addr < ECHO.length; addr++) {
+      AssembledCodeLine line = new AssembledCodeLine();
+      line.lineNo = String.format("%03X", addr);
+      line.hexCode = ECHO[addr].substring(0, 1);
+      line.operand = ECHO[addr].substring(1);
+      objOut.writeObject(line);
+    }
+    objOut.close();
+    return bytes.toByteArray();
+  } // echoProgram()
+
+
+  public boolean interact(InputStream testData, SpscChannel toProgram,
+                          SpscChannel fromProgram) throws IOException {
+/******************************************************************************************
+*  Sends 1, 2, ... up to the count in testData, checking each echo, then a zero.          *
+******************************************************************************************/
+    int trips = new IntScanner(testData).nextInt();
+    for (int i = 1; i <= trips; i++) {
+      toProgram.put(i & 0x3FFF | 1);
+      if (fromProgram.take() != (i & 0x3FFF | 1))
+        return false;
+    }
+    toProgram.put(0);
+    return true;
+  } // interact()
+
+
+  public static void main(String args[]) throws IOException {
+    int trips = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    byte[] mex = echoProgram();
+    for (int round = 0; round < 5; round++) {
+      MarieSim machine = new MarieSim(new ByteArrayInputStream(new byte[0]), System.out);
+      machine.loadProgram(new ByteArrayInputStream(mex));
+      long start = System.nanoTime();
+      boolean ok = new InteractiveRun(machine, new InteractiveBenchmark())
+                           .run(new ByteArrayInputStream(("" + trips).getBytes()));
+      long elapsed = System.nanoTime() - start;
+      System.out.println(" " + trips + " round trips: " + (ok ? "echoed" : "FAILED") + ", "
+                         + (elapsed / trips) + " ns each, machine state "
+                         + machine.machineState + ".");
+    }
+  } // main()
+} // InteractiveBenchmark
@@ -0,0 +1,93 @@
+// File:        LoadBenchmark.java
+// JDK Version: 6
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.lang.management.*;
+
+public class LoadBenchmark {
+/******************************************************************************************
+*  Measures MarieSim.loadProgram() on a full 4096-word image.  The image is generated in  *
+*  memory (one AssembledCodeLine per word, labelled every 16 words) so that the figures   *
+*  don't depend on the disk.  This class is not part of the interpreter build; run it     *
+*  with:                                                                                  *
+*                                                                                         *
+*     javac -d /tmp/marie src/MarieSimulator/*.java bench/MarieSimulator/*.java           *
+*     java -cp /tmp/marie MarieSimulator.LoadBenchmark [iterations]                       *
+*                                                                                         *
+*  It prints the mean and best load time and the bytes allocated per load, first loading  *
+*  from a byte array (as JudgeServer does) and then from a .mex file on disk.             *
+******************************************************************************************/
+  static byte[] fullImage() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+    String[] mnemonics = { "JNS", "LOAD", "STORE", "ADD", "SUBT", "INPUT", "OUTPUT", "HALT",
+                           "SKIPCOND", "JUMP", "CLEAR", "ADDI", "JUMPI", "LOADI", "STOREI" };
+    for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++) {
+      AssembledCodeLine line = new AssembledCodeLine();
+      int opcode = addr % mnemonics.length;
+      line.lineNo = String.format("%03X", addr);
+      line.hexCode = Integer.toHexString(opcode).toUpperCase();
+      line.operand = String.format("%03X", (addr * 7) & 0x0FFF);
+      line.mnemonic = mnemonics[opcode];
+      line.operandToken = line.operand;
+      line.stmtLabel = (addr % 16 == 0) ? "L" + addr : " ";
+      line.sourceLine = line.stmtLabel + "\t" + line.mnemonic + "\t" + line.operand;
+      objOut.writeObject(line);
+    }
+    objOut.close();
+    return bytes.toByteArray();
+  } // fullImage()
+
+
+  static void measure(String what, MarieSim machine, byte[] image, int iterations)
+              throws IOException {
+    com.sun.management.ThreadMXBean threads =
+                   (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+    for (int i = 0; i < iterations; i++)                  // Warm up.
+      load(machine, image);
+    long total = 0,
+         best = Long.MAX_VALUE;
+    long allocStart = threads.getThreadAllocatedBytes(tid);
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      load(machine, image);
+      long elapsed = System.nanoTime() - start;
+      total += elapsed;
+      best = Math.min(best, elapsed);
+    }
+    long allocated = threads.getThreadAllocatedBytes(tid) - allocStart;
+    if (machine.errorFound || (machine.codeLineCount != MarieSim.MAX_MARIE_ADDR + 1))
+      System.out.println(" Load failed: " + machine.codeLineCount + " lines loaded.");
+    System.out.println(" " + what + ", " + iterations + " loads: mean "
+                       + (total / iterations / 1000) + " us, best " + (best / 1000) + " us, "
+                       + (allocated / iterations / 1024) + " KiB allocated per load.");
+  } // measure()
+
+
+  static void load(MarieSim machine, byte[] image) {
+    if (image == null)
+      machine.loadProgram();
+    else
+      machine.loadProgram(new ByteArrayInputStream(image));
+  } // load()
+
+
+  public static void main(String args[]) throws IOException {
+    int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    byte[] image = fullImage();
+    MarieSim machine = new MarieSim(new ByteArrayInputStream(new byte[0]),
+                                    new PrintStream(new ByteArrayOutputStream()));
+    measure("4096-word image (" + image.length + " bytes) from memory", machine, image,
+            iterations);
+    File mex = File.createTempFile("full", MarieSim.MEX_TYPE);
+    mex.deleteOnExit();
+    FileOutputStream fileOut = new FileOutputStream(mex);
+    fileOut.write(image);
+    fileOut.close();
+    String path = mex.getPath();
+    machine.mexFile = path.substring(0, path.length() - MarieSim.MEX_TYPE.length());
+    measure("4096-word image from a file", machine, null, iterations);
+  } // main()
+} // LoadBenchmark
@@ -0,0 +1,58 @@
+// File:        RequestLimitsCheck.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+
+public class RequestLimitsCheck {
+/******************************************************************************************
+*  Regression check for the limits JudgeServer puts on a request:  every request line     *
+*  below must be refused with an IOException before any of its body is read, however      *
+*  large the lengths it declares (a RUN whose two lengths overflow an int once used to    *
+*  get through and run the JVM out of memory).  The requests are parsed in this JVM by    *
+*  JudgeServer.serveRequest(), without a socket.  This class is not part of the           *
+*  interpreter build; run it with:                                                        *
+*                                                                                         *
+*     javac -d /tmp/marie src/MarieSimulator/*.java bench/MarieSimulator/*.java           *
+*     java -cp /tmp/marie MarieSimulator.RequestLimitsCheck                               *
+*                                                                                         *
+*  It prints each request with what became of it and exits with status 1 if any was       *
+*  accepted.                                                                              *
+******************************************************************************************/
+  static final String[] REFUSED = {
+    "RUN 2147483647 1",                      // The sum overflows to a negative int.
+    "RUN 1 2147483647",
+    "RUN 2147483647 2147483647",
+    "RUN -1 0",
+    "RUN 0 -1",
+    "RUN 16777216 1",                        // One byte over MAX_REQUEST_BYTES.
+    "RUN 1 1 0 0",                           // No timeout.
+    "BATCH 2147483647 1",
+    "BATCH 0 0",
+    "BATCH 0 1025" };
+
+  public static void main(String args[]) {
+    JudgeServer server = new JudgeServer(0, 1, 0);
+    int accepted = 0;
+    for (int i = 0; i < REFUSED.length; i++) {
+      InputStream in = new ByteArrayInputStream((REFUSED[i] + "\n").getBytes());
+      PrintStream out = new PrintStream(new ByteArrayOutputStream());
+      String outcome;
+      try {
+        server.serveRequest(in, out);
+        outcome = "ACCEPTED";
+        accepted++;
+      }
+      catch (IOException e) {
+        outcome = "refused: " + e.getMessage();
+      }
+      catch (OutOfMemoryError e) {
+        outcome = "ACCEPTED, and ran out of memory";
+        accepted++;
+      }
+      System.out.println(" " + REFUSED[i] + "  " + outcome);
+    } // for
+    System.out.println(" " + accepted + " of " + REFUSED.length + " requests accepted.");
+    System.exit((accepted > 0) ? 1 : 0);
+  } // main()
+} // RequestLimitsCheck
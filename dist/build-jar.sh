@@ -0,0 +1,17 @@
+#!/bin/sh
+# File:    build-jar.sh
+# Notice:  This code may be freely used for noncommercial purposes.
+#
+# Builds MARIEInterpreter.jar from the sources in ../src, compiled the way the README
+# recommends (-XDstringConcat=inline) for JDK 9 and later.  make-cds.sh runs this first
+# when the jar is missing or older than the sources.  Needs a JDK (javac and jar).
+dir=$(cd "$(dirname "$0")" && pwd)
+javac=${JAVAC:-javac}
+jar=${JAR:-jar}
+classes=$(mktemp -d) || exit 1
+trap 'rm -rf "$classes"' EXIT
+"$javac" -XDstringConcat=inline --release 9 -d "$classes" \
+         "$dir"/../src/MarieSimulator/*.java || exit 1
+"$jar" --create --file "$dir/MARIEInterpreter.jar" --main-class MarieSimulator.MarieSim \
+       -C "$classes" . || exit 1
+echo "Wrote $dir/MARIEInterpreter.jar"
@@ -0,0 +1,35 @@
+#!/bin/sh
+# File:    make-cds.sh
+# Notice:  This code may be freely used for noncommercial purposes.
+#
+# Builds MARIEInterpreter.jsa, a class-data-sharing archive of every class a run of
+# MARIEInterpreter.jar loads, by running the built-in warm-up program as a training run.
+# The archive only works with the exact JVM that made it, so run this once on each judge
+# host (and again after a JDK upgrade).  Needs JDK 13 or later.  The marie script uses
+# the archive when it is there.  If the sources are at hand and the jar is missing or
+# older than them, the jar is rebuilt first (build-jar.sh).
+dir=$(cd "$(dirname "$0")" && pwd)
+java=${JAVA:-java}
+src="$dir/../src/MarieSimulator"
+if [ -d "$src" ]; then
+  if [ ! -f "$dir/MARIEInterpreter.jar" ] \
+     || [ -n "$(find "$src" -name '*.java' -newer "$dir/MARIEInterpreter.jar")" ]; then
+    "$dir/build-jar.sh" || exit 1
+  fi
+fi
+rm -f "$dir/MARIEInterpreter.jsa"
+# A jar too old to know -warmup says "No file to load" and exits 0, so look for the
+# warm-up's own report as well as the exit status.
+out=$("$java" -XX:ArchiveClassesAtExit="$dir/MARIEInterpreter.jsa" -Xlog:cds=off \
+              -Xlog:cds+dynamic=off -jar "$dir/MARIEInterpreter.jar" -warmup)
+status=$?
+case "$out" in
+  *"Warm-up done."*) [ $status -eq 0 ] && ok=1 ;;
+esac
+if [ -z "$ok" ]; then
+  echo "$out"
+  echo "The warm-up failed; is MARIEInterpreter.jar out of date (see build-jar.sh)?" >&2
+  rm -f "$dir/MARIEInterpreter.jsa"
+  exit 1
+fi
+echo "Wrote $dir/MARIEInterpreter.jsa"
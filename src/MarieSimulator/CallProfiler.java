@@ -0,0 +1,233 @@
+// File:        CallProfiler.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class CallProfiler {
+/******************************************************************************************
+*  Counts the instructions a run spends in each subroutine, following MARIE's calling     *
+*  convention:  JnS X stores the return address at X and jumps to X+1, and the routine    *
+*  returns with JUMPI X.  The profiler keeps a shadow return stack:  JnS X pushes a       *
+*  frame for X, and JUMPI X pops back to the frame for X nearest the top (together with   *
+*  any frames above it, which left without returning).  A JUMPI through any other word    *
+*  is an ordinary jump.  A recursive routine that saves X on a stack of its own and puts  *
+*  it back before JUMPI X returns like any other.                                         *
+*                                                                                         *
+*  Each distinct call path ((main), (main);A, ...) is a node of a tree, and every         *
+*  instruction fetched adds one to the node at the top of the stack, which costs an       *
+*  array increment.  From the tree we get each routine's exclusive count (instructions    *
+*  in the routine itself), its inclusive count (including the routines it calls, with a   *
+*  recursive routine counted once per path) and the collapsed-stack text that flame       *
+*  graph tools read:  one line per path, "(main);A;B <count>".  Routines are named by     *
+*  the label of X.  Calls nested more than MAX_DEPTH deep are charged to the deepest      *
+*  frame kept.                                                                            *
+******************************************************************************************/
+  static final int MAX_DEPTH = 4096;
+  static final String  ROOT = "(main)";
+
+  int[]         parent = new int[64];        // Per node:  its caller's node (-1 for the
+  int[]        routine = new int[64];        // root), the X of its JnS X,
+  long[]          self = new long[64];       // instructions fetched in it
+  long[]         calls = new long[64];       // and times it was called.
+  int        nodeCount = 1;                  // Node 0 is the root.
+  HashMap     children = new HashMap();      // (parent << 12 | X) -> child node.
+  int[]          stack = new int[64];        // Nodes of the frames above the root.
+  int            depth = 0;
+  int          current = 0;                  // Node at the top of the stack.
+  long       truncated = 0;                  // Calls not given frames (too deep).
+
+  CallProfiler() {
+    parent[0] = -1;
+    routine[0] = -1;
+  } // CallProfiler()
+
+
+  void clear() {
+/******************************************************************************************
+*  Called by marieReset():  a new program is being loaded.                                *
+******************************************************************************************/
+    Arrays.fill(self, 0, nodeCount, 0);
+    Arrays.fill(calls, 0, nodeCount, 0);
+    nodeCount = 1;
+    children.clear();
+    depth = 0;
+    current = 0;
+    truncated = 0;
+  } // clear()
+
+
+  void executed() {
+/******************************************************************************************
+*  Called by fetchNext() for every instruction.                                           *
+******************************************************************************************/
+    self[current]++;
+  } // executed()
+
+
+  void called(int x) {
+/******************************************************************************************
+*  Called by jnS() for JnS x.                                                             *
+******************************************************************************************/
+    if (depth >= MAX_DEPTH) {
+      truncated++;
+      return;
+    }
+    Long key = Long.valueOf(((long) current << 12) | x);
+    Integer child = (Integer) children.get(key);
+    int node;
+    if (child != null)
+      node = child.intValue();
+    else {
+      node = newNode(current, x);
+      children.put(key, Integer.valueOf(node));
+    }
+    calls[node]++;
+    if (depth == stack.length)
+      stack = Arrays.copyOf(stack, 2 * depth);
+    stack[depth++] = node;
+    current = node;
+  } // called()
+
+
+  int newNode(int caller, int x) {
+    if (nodeCount == parent.length) {
+      int n = 2 * nodeCount;
+      parent = Arrays.copyOf(parent, n);
+      routine = Arrays.copyOf(routine, n);
+      self = Arrays.copyOf(self, n);
+      calls = Arrays.copyOf(calls, n);
+    }
+    parent[nodeCount] = caller;
+    routine[nodeCount] = x;
+    return nodeCount++;
+  } // newNode()
+
+
+  void jumpedThrough(int x) {
+/******************************************************************************************
+*  Called by jumpI() for JUMPI x:  a return if a frame on the stack was called by JnS x.  *
+******************************************************************************************/
+    for (int i = depth - 1; i >= 0; i--)
+      if (routine[stack[i]] == x) {
+        depth = i;
+        current = (depth > 0) ? stack[depth-1] : 0;
+        return;
+      }
+  } // jumpedThrough()
+
+
+  String name(MarieSim m, int node) {
+    if (routine[node] < 0)
+      return ROOT;
+    String label = m.symbols.labelAt(routine[node]);
+    if (label == null)
+      label = m.to3CharHexStr(routine[node]);
+    return label.replace(';', '_').replace(' ', '_');
+  } // name()
+
+
+  String path(MarieSim m, int node) {
+    if (parent[node] < 0)
+      return name(m, node);
+    return path(m, parent[node]) + ";" + name(m, node);
+  } // path()
+
+
+  void writeCollapsed(MarieSim m, PrintStream out) {
+/******************************************************************************************
+*  Writes the collapsed stacks:  each call path that fetched any instructions, with       *
+*  their number.                                                                          *
+******************************************************************************************/
+    for (int node = 0; node < nodeCount; node++)
+      if (self[node] > 0)
+        out.println(path(m, node) + " " + self[node]);
+  } // writeCollapsed()
+
+
+  void report(MarieSim m, PrintStream out) {
+/******************************************************************************************
+*  Prints the calls and the inclusive and exclusive instruction counts of each routine,   *
+*  most inclusive first.  A routine's inclusive count adds each node's instructions to    *
+*  every routine on its path, once per routine, so recursion doesn't count twice.         *
+******************************************************************************************/
+    HashMap rows = new HashMap();                 // X (-1 for the root) -> long[] of
+    int[] seen = new int[MarieSim.MAX_MARIE_ADDR + 2];   // calls, inclusive, exclusive.
+    Arrays.fill(seen, -1);
+    for (int node = 0; node < nodeCount; node++) {
+      long[] row = row(rows, routine[node]);
+      row[0] += calls[node];
+      row[2] += self[node];
+      if (self[node] == 0)
+        continue;
+      for (int n = node; n >= 0; n = parent[n])  // Each routine on the path, once.
+        if (seen[routine[n] + 1] != node) {
+          seen[routine[n] + 1] = node;
+          row(rows, routine[n])[1] += self[node];
+        }
+    } // for
+    ArrayList keys = new ArrayList(rows.keySet());
+    final HashMap sortBy = rows;
+    Collections.sort(keys, new Comparator() {
+      public int compare(Object a, Object b) {
+        long x = ((long[]) sortBy.get(a))[1],
+             y = ((long[]) sortBy.get(b))[1];
+        return (x > y) ? -1 : ((x < y) ? 1 : ((Integer) a).compareTo((Integer) b));
+      }
+    });
+    out.println(" Call profile (instructions):");
+    out.println("        Calls     Inclusive     Exclusive  Routine");
+    for (int i = 0; i < keys.size(); i++) {
+      int x = ((Integer) keys.get(i)).intValue();
+      long[] row = (long[]) rows.get(keys.get(i));
+      String name = ROOT;
+      if (x >= 0) {
+        name = m.symbols.labelAt(x);
+        name = ((name == null) ? "" : name + " ") + "(" + m.to3CharHexStr(x) + ")";
+      }
+      out.println(pad(row[0], 13) + pad(row[1], 14) + pad(row[2], 14) + "  " + name);
+    } // for
+    if (truncated > 0)
+      out.println(" " + truncated + " calls deeper than " + MAX_DEPTH
+                  + " were charged to their callers.");
+  } // report()
+
+
+  static long[] row(HashMap rows, int x) {
+    Integer key = Integer.valueOf(x);
+    long[] row = (long[]) rows.get(key);
+    if (row == null) {
+      row = new long[3];
+      rows.put(key, row);
+    }
+    return row;
+  } // row()
+
+
+  static String pad(long n, int width) {
+    String s = Long.toString(n);
+    StringBuffer sb = new StringBuffer();
+    for (int i = s.length(); i < width; i++)
+      sb.append(' ');
+    return sb.append(s).toString();
+  } // pad()
+
+
+  void write(MarieSim m, String fileName) throws IOException {
+/******************************************************************************************
+*  For "-profile <file>":  the collapsed stacks go to fileName and the table to the       *
+*  standard error, so that neither mixes with the program's output.                       *
+******************************************************************************************/
+    PrintStream fileOut = new PrintStream(new BufferedOutputStream(
+                                              new FileOutputStream(fileName)));
+    try {
+      writeCollapsed(m, fileOut);
+    }
+    finally {
+      fileOut.close();
+    }
+    report(m, System.err);
+  } // write()
+} // CallProfiler
@@ -0,0 +1,209 @@
+// File:        CoreDump.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class CoreDump {
+/******************************************************************************************
+*  A CoreDump is a snapshot of a MARIE machine taken when it halts abnormally.  It holds  *
+*  the registers, the entire memory, the addresses of the last instructions fetched and   *
+*  the error code, which is everything we need for a post-mortem of a judge failure.      *
+*                                                                                         *
+*  Dumps are written to <program>.dmp in a compact big-endian binary form using a single  *
+*  NIO write, so taking one costs next to nothing.  The hex-table text rendering is only  *
+*  produced when somebody asks for it ("MarieSim -dump <program>.dmp", or toString()).    *
+*                                                                                         *
+*  Binary layout (all values big-endian):                                                 *
+*     int   MAGIC              short VERSION                                              *
+*     int   errorCode          int   machineState                                         *
+*     short AC, IR, MAR, MBR, PC, INPUT, OUTPUT                                           *
+*     long  instructionCount                                                              *
+*     short n, then n shorts   addresses of the last n instructions fetched, oldest first *
+*     short MAX_MARIE_ADDR+1 words of memory                                              *
+******************************************************************************************/
+  public static final int     MAGIC = 0x4D444D50;  // "MDMP"
+  public static final short VERSION = 1;
+  static final int        REGISTERS = MarieSim.OUTPUT + 1;
+  static final int      MEMORY_SIZE = MarieSim.MAX_MARIE_ADDR + 1;
+
+  int       errorCode;
+  int    machineState;
+  short[]   registers = new short[REGISTERS];   // Indexed by register designation.
+  long instructionCount;
+  short[]  recentPCs;                           // Oldest first.
+  short[]      memory = new short[MEMORY_SIZE];
+  String         text = null;                   // Rendered on first use only.
+  SymbolMap   symbols = null;                   // Names for addresses, if known.
+
+  CoreDump() { }
+
+  CoreDump(MarieSim m) {
+/******************************************************************************************
+*  Captures the state of machine m.                                                       *
+******************************************************************************************/
+    errorCode = m.errorCode;
+    machineState = m.machineState;
+    registers[MarieSim.AC]     = m.regAC.value;
+    registers[MarieSim.IR]     = m.regIR.value;
+    registers[MarieSim.MAR]    = m.regMAR.value;
+    registers[MarieSim.MBR]    = m.regMBR.value;
+    registers[MarieSim.PC]     = m.regPC.value;
+    registers[MarieSim.INPUT]  = m.regINPUT.value;
+    registers[MarieSim.OUTPUT] = m.regOUTPUT.value;
+    instructionCount = m.instructionCount;
+    symbols = m.symbols;
+    int n = (int) Math.min(m.pcHistoryCount, MarieSim.PC_HISTORY);
+    recentPCs = new short[n];
+    for (int i = 0; i < n; i++)
+      recentPCs[i] = (short) m.pcHistory[(int) ((m.pcHistoryCount - n + i)
+                                                & (MarieSim.PC_HISTORY - 1))];
+    for (int addr = 0; addr < MEMORY_SIZE; addr++)
+      memory[addr] = (short) m.memoryValue(addr);
+  } // CoreDump()
+
+
+  public void write(String fileName) throws IOException {
+/******************************************************************************************
+*  Writes the binary form of the dump to fileName with one bulk channel write.            *
+******************************************************************************************/
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + 4 + 4 + 2 * REGISTERS + 8
+                                            + 2 + 2 * recentPCs.length + 2 * MEMORY_SIZE);
+    buffer.putInt(MAGIC).putShort(VERSION).putInt(errorCode).putInt(machineState);
+    buffer.asShortBuffer().put(registers);
+    buffer.position(buffer.position() + 2 * REGISTERS);
+    buffer.putLong(instructionCount);
+    buffer.putShort((short) recentPCs.length);
+    buffer.asShortBuffer().put(recentPCs);
+    buffer.position(buffer.position() + 2 * recentPCs.length);
+    buffer.asShortBuffer().put(memory);
+    buffer.position(buffer.limit());
+    buffer.flip();
+    FileOutputStream fileOut = new FileOutputStream(fileName);
+    try {
+      FileChannel channel = fileOut.getChannel();
+      while (buffer.hasRemaining())               // One write() in practice; the loop
+        channel.write(buffer);                    // only guards against short writes.
+    }
+    finally {
+      fileOut.close();
+    }
+  } // write()
+
+
+  public static CoreDump read(String fileName) throws IOException {
+/******************************************************************************************
+*  Reads a binary dump written by write().  A file that isn't one (or has been damaged)   *
+*  is reported with an IOException, never a runtime exception.                            *
+******************************************************************************************/
+    FileInputStream fileIn = new FileInputStream(fileName);
+    ByteBuffer buffer;
+    try {
+      FileChannel channel = fileIn.getChannel();
+      buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining())
+        if (channel.read(buffer) < 0)
+          break;
+    }
+    finally {
+      fileIn.close();
+    }
+    buffer.flip();
+    CoreDump dump = new CoreDump();
+    try {
+      if ((buffer.getInt() != MAGIC) || (buffer.getShort() != VERSION))
+        throw new IOException(fileName + " is not a MARIE core dump.");
+      dump.errorCode = buffer.getInt();
+      dump.machineState = buffer.getInt();
+      for (int i = 0; i < REGISTERS; i++)
+        dump.registers[i] = buffer.getShort();
+      dump.instructionCount = buffer.getLong();
+      int n = buffer.getShort();
+      if ((n < 0) || (n > MarieSim.PC_HISTORY))  // write() never records more.
+        throw new IOException(fileName + " is not a MARIE core dump.");
+      dump.recentPCs = new short[n];
+      for (int i = 0; i < n; i++)
+        dump.recentPCs[i] = buffer.getShort();
+      if (buffer.remaining() < 2 * MEMORY_SIZE)
+        throw new BufferUnderflowException();
+      buffer.asShortBuffer().get(dump.memory);
+    }
+    catch (BufferUnderflowException e) {
+      throw new IOException(fileName + " is truncated.");
+    }
+    return dump;
+  } // read()
+
+
+  public String toString() {
+/******************************************************************************************
+*  Renders the dump as text: a register line, the recent PCs, and memory as a hex table   *
+*  laid out like the simulator's memory display (16 words to a row).                      *
+******************************************************************************************/
+    if (text != null)
+      return text;
+    String linefeed = MarieSim.linefeed;
+    StringBuffer sb = new StringBuffer(MEMORY_SIZE * 6);
+    sb.append("MARIE core dump: ");
+    if ((errorCode >= 0) && (errorCode < MarieSim.errorMsgs.length))
+      sb.append(MarieSim.errorMsgs[errorCode]);
+    sb.append(" (error ").append(errorCode).append(", state ").append(machineState)
+      .append(")").append(linefeed);
+    sb.append(" AC ").append(hex4(registers[MarieSim.AC]))
+      .append("  IR ").append(hex4(registers[MarieSim.IR]))
+      .append("  MAR ").append(hex3(registers[MarieSim.MAR]))
+      .append("  MBR ").append(hex4(registers[MarieSim.MBR]))
+      .append("  PC ").append(hex3(registers[MarieSim.PC]))
+      .append("  INPUT ").append(hex4(registers[MarieSim.INPUT]))
+      .append("  OUTPUT ").append(hex4(registers[MarieSim.OUTPUT])).append(linefeed);
+    sb.append(" Instructions executed: ").append(instructionCount).append(linefeed);
+    sb.append(" Last ").append(recentPCs.length).append(" PCs (oldest first):");
+    for (int i = 0; i < recentPCs.length; i++) {
+      String name = (symbols == null) ? null : symbols.nameFor(recentPCs[i]);
+      if (name != null)                         // One per line when we can name them,
+        sb.append(linefeed).append("   ").append(hex3(recentPCs[i])).append("  ").append(name);
+      else {                                    // otherwise 16 to a line.
+        if (i % 16 == 0)
+          sb.append(linefeed).append("  ");
+        sb.append(" ").append(hex3(recentPCs[i]));
+      }
+    }
+    sb.append(linefeed).append(linefeed).append("      ");
+    for (int col = 0; col < 16; col++)
+      sb.append("  +").append(Integer.toHexString(col).toUpperCase()).append(" ");
+    for (int addr = 0; addr < MEMORY_SIZE; addr++) {
+      if (addr % 16 == 0)
+        sb.append(linefeed).append("  ").append(hex3(addr)).append(" ");
+      sb.append(" ").append(hex4(memory[addr]));
+    }
+    sb.append(linefeed);
+    text = sb.toString();
+    return text;
+  } // toString()
+
+
+  static String hex3(int v) { return String.format("%03X", v & 0x0FFF); }
+
+  static String hex4(int v) { return String.format("%04X", v & 0xFFFF); }
+
+
+  public static void main(String args[]) {
+/******************************************************************************************
+*  Entry point for "MarieSim -dump <file>.dmp": prints the text rendering of a dump.      *
+******************************************************************************************/
+    if (args.length < 2) {
+      System.out.println(" Usage: MarieSim -dump <file>" + MarieSim.DMP_TYPE);
+      return;
+    }
+    try {
+      CoreDump dump = read(args[1]);
+      dump.symbols = SymbolMap.forDump(args[1]);
+      System.out.print(dump);
+    }
+    catch (IOException e) {
+      System.out.println(" "+e);
+    }
+  } // main()
+} // CoreDump
@@ -0,0 +1,71 @@
+// File:        CostModel.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class CostModel {
+/******************************************************************************************
+*  Predicts how many instructions a run will take from the runs made before, so that     *
+*  JudgeServer can serve the shortest jobs first.  What a run took is recorded against    *
+*  its program and its input, each identified by a 32-bit hash of its bytes.  The         *
+*  prediction for a run is, best first:                                                   *
+*                                                                                         *
+*     what the same program took on the same input last time (a rejudge),                 *
+*     the mean of what the same program took on other inputs, or                         *
+*     the mean of every run recorded (a program never seen before).                       *
+*                                                                                         *
+*  With nothing recorded at all every run is predicted to cost the same, and the          *
+*  server's queue is first come, first served.  Hash collisions can only misorder the     *
+*  queue, never change a verdict.  Both tables forget their least recently used entries  *
+*  past MAX_ENTRIES.                                                                      *
+******************************************************************************************/
+  static final int MAX_ENTRIES = 1 << 16;
+
+  LinkedHashMap      byRun = lruMap();       // (Program, input) hash -> Long instructions.
+  LinkedHashMap  byProgram = lruMap();       // Program hash -> long[] { sum, runs }.
+  long            totalSum = 0,              // Over every run recorded.
+                 totalRuns = 0;
+
+  static LinkedHashMap lruMap() {
+    return new LinkedHashMap(256, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+  } // lruMap()
+
+
+  static Long runKey(int programHash, int inputHash) {
+    return Long.valueOf(((long) programHash << 32) | (inputHash & 0xFFFFFFFFL));
+  } // runKey()
+
+
+  synchronized long predict(int programHash, int inputHash) {
+    Long last = (Long) byRun.get(runKey(programHash, inputHash));
+    if (last != null)
+      return last.longValue();
+    long[] program = (long[]) byProgram.get(Integer.valueOf(programHash));
+    if (program != null)
+      return program[0] / program[1];
+    return (totalRuns == 0) ? 0 : totalSum / totalRuns;
+  } // predict()
+
+
+  synchronized void record(int programHash, int inputHash, long instructions) {
+/******************************************************************************************
+*  Called when a run ends with the instructions it executed.  (A run stopped by its       *
+*  timeout records what it got through, which is at least a lower bound.)                 *
+******************************************************************************************/
+    byRun.put(runKey(programHash, inputHash), Long.valueOf(instructions));
+    Integer key = Integer.valueOf(programHash);
+    long[] program = (long[]) byProgram.get(key);
+    if (program == null)
+      byProgram.put(key, program = new long[2]);
+    program[0] += instructions;
+    program[1]++;
+    totalSum += instructions;
+    totalRuns++;
+  } // record()
+} // CostModel
@@ -0,0 +1,199 @@
+// File:        CountingLoop.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+
+class CountingLoop {
+/******************************************************************************************
+*  Student programs often spend nearly all of their time in counting loops such as        *
+*                                                                                         *
+*        L, LOAD   X          L, LOAD   X                                                 *
+*           ADD    ONE           SUBT   ONE                                               *
+*           STORE  X             STORE  X                                                 *
+*           SUBT   N             SKIPCOND 400                                             *
+*           SKIPCOND 000         JUMP   L                                                 *
+*           JUMP   L                                                                      *
+*                                                                                         *
+*  Each trip adds a constant to one word (X), optionally adds or subtracts another        *
+*  constant (N), and tests the sign of the result, so the number of trips can be worked  *
+*  out directly from the 16-bit arithmetic.  analyze() finds such loops in a program      *
+*  when it is loaded, and fastForward() then takes the machine straight to the state in   *
+*  which it leaves the loop, crediting every instruction the loop would have executed.    *
+*                                                                                         *
+*  The result is exactly what runProgram() would have produced:  memory, AC, PC, IR,      *
+*  MAR, MBR, the instruction and cycle counts, the recent-PC ring and the monitor focus.  *
+*  The loop is only taken this way while its words are still the ones analyzed (so        *
+*  self-modifying code is safe) and when X, ONE and N lie outside the loop and X differs  *
+*  from the other two, so that only X changes.  Loops that never exit are left to run     *
+*  (and to the LoopDetector or the instruction limit).                                    *
+******************************************************************************************/
+  static final int WORD = 0x10000;           // Number of 16-bit values.
+
+  int        head;                           // Address of the LOAD X.
+  int      length;                           // 6 with the compare, 5 without.
+  short[]   words;                           // The loop as analyzed.
+  int      cycles;                           // Of a whole trip, JUMP included.
+  int   counterAddr,                         // X
+           stepAddr,                         // ONE
+          boundAddr;                         // N, or -1 if there is no compare.
+  boolean  stepSubtracted,                   // SUBT ONE rather than ADD ONE.
+          boundAdded;                        // ADD N rather than SUBT N.
+  int        cond;                           // SKIPCOND condition: 0 <, 1 =, 2 >.
+
+  static CountingLoop[] analyze(short[] memory) {
+/******************************************************************************************
+*  Returns the counting loops in memory indexed by the address of their first             *
+*  instruction, or null if there aren't any.                                              *
+******************************************************************************************/
+    CountingLoop[] loops = null;
+    for (int addr = 0; addr + 4 <= MarieSim.MAX_MARIE_ADDR; addr++) {
+      CountingLoop loop = match(memory, addr);
+      if (loop != null) {
+        if (loops == null)
+          loops = new CountingLoop[MarieSim.MAX_MARIE_ADDR+1];
+        loops[addr] = loop;
+      }
+    } // for
+    return loops;
+  } // analyze()
+
+
+  static CountingLoop match(short[] memory, int head) {
+/******************************************************************************************
+*  Returns the counting loop starting at head, or null if there isn't one.                *
+******************************************************************************************/
+    if ((opcode(memory[head]) != 1) || (opcode(memory[head+2]) != 2)
+        || (operand(memory[head+2]) != operand(memory[head])))
+      return null;                                   // LOAD X ... STORE X
+    int step = opcode(memory[head+1]);
+    if ((step != 3) && (step != 4))                  // ADD or SUBT ONE
+      return null;
+    CountingLoop loop = new CountingLoop();
+    loop.head = head;
+    loop.counterAddr = operand(memory[head]);
+    loop.stepAddr = operand(memory[head+1]);
+    loop.stepSubtracted = (step == 4);
+    loop.boundAddr = -1;
+    int skip = head + 3;
+    int compare = opcode(memory[skip]);
+    if ((compare == 3) || (compare == 4)) {          // ADD or SUBT N
+      loop.boundAddr = operand(memory[skip]);
+      loop.boundAdded = (compare == 3);
+      skip++;
+    }
+    loop.length = skip - head + 2;
+    if ((skip + 1 > MarieSim.MAX_MARIE_ADDR) || (opcode(memory[skip]) != 8)
+        || (opcode(memory[skip+1]) != 9) || (operand(memory[skip+1]) != head))
+      return null;                                   // SKIPCOND c, JUMP L
+    loop.cond = (memory[skip] & 0x0C00) >> 10;
+    if (loop.cond == 3)
+      return null;
+    if (loop.inside(loop.counterAddr) || loop.inside(loop.stepAddr)
+        || loop.inside(loop.boundAddr) || (loop.counterAddr == loop.stepAddr)
+        || (loop.counterAddr == loop.boundAddr))
+      return null;
+    loop.words = new short[loop.length];
+    System.arraycopy(memory, head, loop.words, 0, loop.length);
+    for (int i = 0; i < loop.length; i++)
+      loop.cycles += MarieSim.CYCLES[opcode(loop.words[i])];
+    return loop;
+  } // match()
+
+
+  static int opcode(int word) { return (word >> 12) & 0x000F; }
+
+  static int operand(int word) { return word & 0x0FFF; }
+
+  boolean inside(int addr) { return (addr >= head) && (addr < head + length); }
+
+
+  boolean fastForward(MarieSim m) {
+/******************************************************************************************
+*  Called with m's PC at head.  If the loop is intact and will exit, puts m in the state  *
+*  it will have on leaving the loop and returns true.  Otherwise leaves m alone and       *
+*  returns false so that the loop is simply executed.                                     *
+******************************************************************************************/
+    short[] memory = m.memory;
+    for (int i = 0; i < length; i++)
+      if (memory[head + i] != words[i])
+        return false;
+    int x = memory[counterAddr],
+        d = stepSubtracted ? -memory[stepAddr] : memory[stepAddr],
+        e = (boundAddr < 0) ? 0
+                            : (boundAdded ? memory[boundAddr] : -memory[boundAddr]);
+    long k = firstHit(x + d + e, d, cond);           // Trips before the last one.
+    if (k < 0)
+      return false;
+    long executed = (k + 1) * length - 1;            // The last trip skips the JUMP.
+    long spent = (k + 1) * cycles - MarieSim.CYCLES[9];  // Cycles, likewise.
+    if (((m.instructionLimit > 0) && (m.instructionCount + executed > m.instructionLimit))
+        || ((m.cycleLimit > 0) && (m.cycleCount + spent > m.cycleLimit)))
+      return false;                                  // Let the limit trip as usual.
+    int counter = (short) (x + (k + 1) * d);
+    int skipAddr = head + length - 2;
+    for (long t = Math.max(0, executed - MarieSim.PC_HISTORY); t < executed; t++)
+      m.pcHistory[(int) ((m.pcHistoryCount + t) & (MarieSim.PC_HISTORY-1))]
+                 = head + (int) (t % length);
+    m.pcHistoryCount += executed;
+    m.instructionCount += executed;
+    m.cycleCount += spent;
+    m.writeMemory(counterAddr, counter);             // STORE X, last time round.
+    m.regAC.setValue(counter + e);
+    if (boundAddr < 0) {
+      m.regMBR.setValue(counter);                    // STORE moved AC through the MBR,
+      m.memoryFocusCell = counterAddr;
+    }
+    else {
+      m.regMBR.setValue(memory[boundAddr]);          // or the compare fetched N.
+      m.memoryFocusCell = boundAddr;
+    }
+    m.regMAR.setValue(skipAddr);                     // Then the SKIPCOND was fetched
+    m.regIR.setValue(memory[skipAddr]);              // and skipped the JUMP.
+    m.instructionCode = 8;
+    if (m.codeReference[skipAddr] >= 0)
+      m.programFocusRow = m.codeReference[skipAddr];
+    m.regPC.setValue(head + length);
+    return true;
+  } // fastForward()
+
+
+  static long firstHit(int a, int d, int cond) {
+/******************************************************************************************
+*  Returns the smallest k >= 0 for which the 16-bit value a + k*d passes SKIPCOND cond,   *
+*  or -1 if there is none.                                                                *
+******************************************************************************************/
+    a &= 0xFFFF;
+    d &= 0xFFFF;
+    if (passes(a, cond))
+      return 0;
+    if (d == 0)
+      return -1;
+    if (cond == 1) {                         // Solve k*d = -a (mod 2^16).  d = g*odd,
+      int target = (WORD - a) & 0xFFFF;      // with g a power of 2, so a solution needs
+      int g = Integer.lowestOneBit(d);       // g to divide -a and is then unique mod
+      if (target % g != 0)                   // 2^16/g.
+        return -1;
+      long modulus = WORD / g,
+           odd = d / g,
+           inverse = odd;                    // Newton's iteration for the inverse of an
+      for (int i = 0; i < 4; i++)            // odd number doubles the correct low bits:
+        inverse = (inverse * (2 - odd * inverse)) & (modulus - 1);  // 3, 6, 12, 24.
+      return ((target / g) * inverse) & (modulus - 1);
+    }
+    int lo = (cond == 0) ? 0x8000 : 0x0001,  // The negative or the positive values.
+        hi = (cond == 0) ? 0xFFFF : 0x7FFF;
+    int step = (short) d;
+    long k;
+    if (step > 0)                            // Climb to lo; we can't jump over the whole
+      k = (((lo - a) & 0xFFFF) + step - 1) / step;   // range, it's wider than step.
+    else                                     // Descend to hi likewise, except that a
+      k = (((a - hi) & 0xFFFF) - step - 1) / -step;  // step of -8000 can jump it.
+    return passes((int) ((a + k * d) & 0xFFFF), cond) ? k : -1;
+  } // firstHit()
+
+
+  static boolean passes(int value, int cond) {
+    short ac = (short) value;
+    return ((ac < 0) && (cond == 0)) || ((ac == 0) && (cond == 1)) || ((ac > 0) && (cond == 2));
+  } // passes()
+} // CountingLoop
@@ -0,0 +1,302 @@
+// File:        Coverage.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class Coverage {
+/******************************************************************************************
+*  Records which instructions of a program a run executes, and which way each SKIPCOND    *
+*  went:  skipped, or fell through to the next instruction.  This is for problem setters  *
+*  who want to know what their hidden tests exercise in the reference solution, and       *
+*  which tests could be dropped because others cover everything they do.                  *
+*                                                                                         *
+*  A Coverage is a bitmap of points, one bit per address in each of three sections:       *
+*  executed (set by fetchNext()), skipped and not skipped (set by skipCond()).  Each      *
+*  machine counts into a Coverage of its own, so runs made in parallel don't share        *
+*  anything, and runs are combined by ORing their bitmaps with merge().  Only points      *
+*  that are part of the program count toward the totals:  the addresses of its            *
+*  instructions (not DEC, OCT or HEX data) and the two outcomes of each SKIPCOND.         *
+*  Fast-forwarded counting loops and superinstructions skip fetchNext(), so a machine     *
+*  with a Coverage runs every instruction the ordinary way.                               *
+*                                                                                         *
+*  "MarieSim -coverage <file>.mex <input file> ..." runs the program on each input and    *
+*  prints the program's lines with how many tests reached each, and for each test how     *
+*  much it covers and whether the others together already cover all of it.                *
+******************************************************************************************/
+  static final int    WORDS = (MarieSim.MAX_MARIE_ADDR + 1) / 64;   // Per section.
+  static final int EXECUTED = 0;                                     // Section offsets
+  static final int  SKIPPED = MarieSim.MAX_MARIE_ADDR + 1;           // in bits.
+  static final int NOT_SKIPPED = 2 * (MarieSim.MAX_MARIE_ADDR + 1);
+  static final long MAX_INSTRUCTIONS = 100000000;   // Per test run.
+  static final String[] DATA = { "DEC", "OCT", "HEX" };
+
+  long[] bits = new long[3 * WORDS];
+
+  static void set(long[] bits, int point) {
+    bits[point >> 6] |= 1L << point;
+  } // set()
+
+
+  static boolean isSet(long[] bits, int point) {
+    return (bits[point >> 6] & (1L << point)) != 0;
+  } // isSet()
+
+
+  void executed(int addr) {
+/******************************************************************************************
+*  Called by fetchNext() for the instruction at addr.                                     *
+******************************************************************************************/
+    set(bits, EXECUTED + addr);
+  } // executed()
+
+
+  void branched(int addr, boolean skipped) {
+/******************************************************************************************
+*  Called by skipCond() for the SKIPCOND at addr with whether it skips.                   *
+******************************************************************************************/
+    set(bits, (skipped ? SKIPPED : NOT_SKIPPED) + addr);
+  } // branched()
+
+
+  void clear() {
+/******************************************************************************************
+*  Called by marieReset():  a new program is being loaded.                                *
+******************************************************************************************/
+    Arrays.fill(bits, 0);
+  } // clear()
+
+
+  synchronized void merge(Coverage other) {
+    for (int i = 0; i < bits.length; i++)
+      bits[i] |= other.bits[i];
+  } // merge()
+
+
+  static int count(long[] bits, long[] mask) {
+    int n = 0;
+    for (int i = 0; i < bits.length; i++)
+      n += Long.bitCount(bits[i] & mask[i]);
+    return n;
+  } // count()
+
+
+  static long[] points(MarieSim m, boolean branches) {
+/******************************************************************************************
+*  The mask of the points of the program loaded in m:  the addresses of its instructions  *
+*  and, if branches is set, the outcomes of its SKIPCONDs (only).                         *
+******************************************************************************************/
+    long[] mask = new long[3 * WORDS];
+    for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++) {
+      if (!isInstruction(m, addr))
+        continue;
+      if (!branches)
+        set(mask, EXECUTED + addr);
+      else if (((m.memory[addr] >> 12) & 0x000F) == 8) {
+        set(mask, SKIPPED + addr);
+        set(mask, NOT_SKIPPED + addr);
+      }
+    } // for
+    return mask;
+  } // points()
+
+
+  static boolean isInstruction(MarieSim m, int addr) {
+    int row = m.codeReference[addr];
+    if (row < 0)
+      return false;
+    String mnemonic = m.programLines[row].mnemonic.trim().toUpperCase();
+    for (int i = 0; i < DATA.length; i++)
+      if (mnemonic.equals(DATA[i]))
+        return false;
+    return true;
+  } // isInstruction()
+
+
+  static class Test implements Callable {
+/******************************************************************************************
+*  One run of the program on one input file, on a machine of its own.                     *
+******************************************************************************************/
+    byte[]         mex;
+    String   inputName;
+    Coverage  coverage = new Coverage();
+    Coverage     total;                      // Where to merge the result.
+    int   machineState;
+    int      errorCode;
+
+    Test(byte[] mex, String inputName, Coverage total) {
+      this.mex = mex;
+      this.inputName = inputName;
+      this.total = total;
+    } // Test()
+
+    public Object call() throws IOException {
+      InputStream input = new FileInputStream(inputName);
+      try {
+        MarieSim m = new MarieSim(new BufferedInputStream(input),
+                                  new PrintStream(new OutputStream() {
+                                    public void write(int b) { }        // Output isn't
+                                    public void write(byte[] b, int off, int len) { }
+                                  }));                                   // wanted.
+        m.coverage = coverage;
+        m.dumpOnError = false;
+        m.instructionLimit = MAX_INSTRUCTIONS;
+        m.loadProgram(new ByteArrayInputStream(mex));
+        m.machineState = MarieSim.MARIE_RUNNING;
+        m.runProgram();
+        machineState = m.machineState;
+        errorCode = m.errorCode;
+      }
+      finally {
+        input.close();
+      }
+      total.merge(coverage);
+      return this;
+    } // call()
+  } // Test
+
+
+  static void report(MarieSim m, Coverage total, Test[] tests, PrintStream out) {
+/******************************************************************************************
+*  Prints the program's lines, each instruction with the number of tests that executed    *
+*  it ("#####" for none) and each SKIPCOND with the outcomes seen ("S" skipped, "N" not   *
+*  skipped, "-" for an outcome no test reached), then a line for each test.               *
+*                                                                                         *
+*  A test is redundant if the tests chosen before it already cover everything it does,    *
+*  choosing greedily:  first the test that covers most, then each time the one that adds  *
+*  the most points not yet covered.  The tests that are chosen are a small set with the   *
+*  same coverage as all of them.                                                          *
+******************************************************************************************/
+    long[] instructions = points(m, false),
+               branches = points(m, true);
+    int instructionCount = count(instructions, instructions),
+             branchCount = count(branches, branches);
+    out.println(" Coverage of " + tests.length + " tests:");
+    out.println("   Instructions executed: " + count(total.bits, instructions) + " of "
+                + instructionCount);
+    out.println("   SKIPCOND outcomes:     " + count(total.bits, branches) + " of "
+                + branchCount);
+    out.println();
+    out.println("   Tests  Skip  Addr Label     Instruction");
+    for (int row = 0; row < m.codeLineCount; row++) {
+      AssembledCodeLine line = m.programLines[row];
+      int addr = MarieSim.parseHex(line.lineNo.trim(), 3);
+      String hits = "",
+             skip = "";
+      if ((addr >= 0) && isInstruction(m, addr)) {
+        int reached = 0;
+        for (int t = 0; t < tests.length; t++)
+          if (isSet(tests[t].coverage.bits, EXECUTED + addr))
+            reached++;
+        hits = (reached == 0) ? "#####" : Integer.toString(reached);
+        if (isSet(branches, SKIPPED + addr))
+          skip = (isSet(total.bits, SKIPPED + addr) ? "S" : "-")
+                 + (isSet(total.bits, NOT_SKIPPED + addr) ? "N" : "-");
+      }
+      out.println(pad(hits, 8) + pad(skip, 6) + "  " + line.lineNo.trim() + "  "
+                  + pad(line.stmtLabel.trim(), -8) + "  "
+                  + (line.mnemonic.trim() + " " + line.operandToken.trim()).trim());
+    } // for
+    long[] all = new long[3 * WORDS];
+    for (int i = 0; i < all.length; i++)
+      all[i] = instructions[i] | branches[i];
+    long[] covered = new long[all.length];
+    boolean[] chosen = new boolean[tests.length];
+    while (true) {
+      int best = -1,
+          bestGain = 0;
+      for (int t = 0; t < tests.length; t++) {
+        if (chosen[t])
+          continue;
+        int gain = 0;
+        for (int i = 0; i < all.length; i++)
+          gain += Long.bitCount(tests[t].coverage.bits[i] & all[i] & ~covered[i]);
+        if (gain > bestGain) {
+          best = t;
+          bestGain = gain;
+        }
+      } // for
+      if (best < 0)
+        break;
+      chosen[best] = true;
+      for (int i = 0; i < all.length; i++)
+        covered[i] |= tests[best].coverage.bits[i] & all[i];
+    } // while
+    out.println();
+    out.println("   Instructions  Outcomes  State  Test");
+    int redundant = 0;
+    for (int t = 0; t < tests.length; t++) {
+      out.println(pad(Integer.toString(count(tests[t].coverage.bits, instructions)), 15)
+                  + pad(Integer.toString(count(tests[t].coverage.bits, branches)), 10)
+                  + pad(Integer.toString(tests[t].machineState), 7) + "  "
+                  + tests[t].inputName
+                  + (chosen[t] ? "" : "  (redundant)")
+                  + ((tests[t].errorCode != 0)
+                     ? "  " + MarieSim.errorMsgs[tests[t].errorCode] : ""));
+      if (!chosen[t])
+        redundant++;
+    } // for
+    out.println(" " + (tests.length - redundant) + " of " + tests.length
+                + " tests give the same coverage as all of them.");
+  } // report()
+
+
+  static String pad(String s, int width) {    // Right-aligned, or left-aligned if
+    StringBuffer sb = new StringBuffer();       // width is negative.
+    for (int i = s.length(); i < Math.abs(width); i++)
+      sb.append(' ');
+    return (width < 0) ? s + sb : sb + s;
+  } // pad()
+
+
+  public static void main(String args[]) {
+/******************************************************************************************
+*  Entry point for "MarieSim -coverage <file>.mex <input file> ...".  The runs are made   *
+*  in parallel, one machine per input file.  args[0] is the -coverage switch itself.      *
+******************************************************************************************/
+    if (args.length < 3) {
+      System.out.println(" Usage: MarieSim -coverage <file>" + MarieSim.MEX_TYPE
+                         + " <input file> ...");
+      return;
+    }
+    byte[] mex;
+    try {
+      mex = LockstepBatch.readFile(args[1]);
+    }
+    catch (IOException e) {
+      System.out.println(" "+e);
+      return;
+    }
+    MarieSim m = new MarieSim();               // For the program's lines.
+    m.loadProgram(new ByteArrayInputStream(mex));
+    if (m.errorFound)
+      return;                                  // loadProgram() has said why.
+    Coverage total = new Coverage();
+    Test[] tests = new Test[args.length - 2];
+    ExecutorService pool = Executors.newFixedThreadPool(
+                                      Runtime.getRuntime().availableProcessors());
+    List results = new ArrayList();
+    for (int t = 0; t < tests.length; t++) {
+      tests[t] = new Test(mex, args[t+2], total);
+      results.add(pool.submit(tests[t]));
+    } // for
+    try {
+      for (int t = 0; t < tests.length; t++)
+        ((Future) results.get(t)).get();
+    }
+    catch (InterruptedException e) {
+      return;
+    }
+    catch (ExecutionException e) {
+      System.out.println(" "+e.getCause());
+      return;
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    report(m, total, tests, System.out);
+  } // main()
+} // Coverage
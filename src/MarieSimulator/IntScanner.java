@@ -0,0 +1,95 @@
+// File:        IntScanner.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+
+class IntScanner {
+/******************************************************************************************
+*  Reads whitespace-separated integers for the INPUT instruction, the way                 *
+*  java.util.Scanner.nextInt() does.  Building a Scanner compiles its regular             *
+*  expressions and loads the locale's number formats, which costs more than a short test  *
+*  case takes to run.  Judge input is almost always plain decimal, so we parse that       *
+*  ourselves and only hand a token to a Scanner if it is anything else (e.g., "1,000"),   *
+*  which keeps the accepted input and the exceptions thrown exactly as before:            *
+*  NoSuchElementException at end of input, InputMismatchException for a token that       *
+*  isn't an int.                                                                          *
+******************************************************************************************/
+  Reader          in;
+  String     pending = null;                 // Token read ahead by hasPlainInt().
+
+  IntScanner(InputStream in) {
+    this.in = new BufferedReader(new InputStreamReader(in));
+  } // IntScanner()
+
+
+  String token() {
+/******************************************************************************************
+*  Returns the next whitespace-delimited token without using it up, or null at the end   *
+*  of the input.                                                                          *
+******************************************************************************************/
+    if (pending != null)
+      return pending;
+    StringBuffer token = new StringBuffer();
+    try {
+      int c = in.read();
+      while ((c >= 0) && Character.isWhitespace((char) c))
+        c = in.read();
+      while ((c >= 0) && !Character.isWhitespace((char) c)) {
+        token.append((char) c);
+        c = in.read();
+      } // while
+    }
+    catch (IOException e) {                  // Scanner treats this as end of input.
+    }
+    if (token.length() > 0)
+      pending = token.toString();
+    return pending;
+  } // token()
+
+
+  static boolean isPlain(String s) {
+/******************************************************************************************
+*  Whether s is an optionally signed string of ASCII digits short enough to parse as a    *
+*  long.                                                                                  *
+******************************************************************************************/
+    int start = ((s.charAt(0) == '-') || (s.charAt(0) == '+')) ? 1 : 0;
+    boolean plain = (s.length() > start) && (s.length() <= 11);
+    for (int i = start; plain && (i < s.length()); i++)
+      plain = (s.charAt(i) >= '0') && (s.charAt(i) <= '9');
+    return plain;
+  } // isPlain()
+
+
+  static long parsePlain(String s) {
+    return Long.parseLong(((s.charAt(0) == '+') ? s.substring(1) : s));
+  } // parsePlain()
+
+
+  boolean hasPlainInt() {
+/******************************************************************************************
+*  Whether the next token is a plain decimal int, so that nextInt() will return it        *
+*  without going to a Scanner or throwing.                                                *
+******************************************************************************************/
+    String s = token();
+    if ((s == null) || !isPlain(s))
+      return false;
+    long value = parsePlain(s);
+    return (value >= Integer.MIN_VALUE) && (value <= Integer.MAX_VALUE);
+  } // hasPlainInt()
+
+
+  int nextInt() {
+    String s = token();
+    if (s == null)
+      throw new NoSuchElementException();
+    pending = null;
+    if (!isPlain(s))
+      return new Scanner(s).nextInt();
+    long value = parsePlain(s);
+    if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE))
+      throw new InputMismatchException(s);
+    return (int) value;
+  } // nextInt()
+} // IntScanner
@@ -0,0 +1,21 @@
+// File:        Interactor.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+
+public interface Interactor {
+/******************************************************************************************
+*  The judge's side of an interactive problem, run in the same JVM as the MARIE machine   *
+*  (see InteractiveRun).  interact() is given the test data and two channels:  values    *
+*  put into toProgram are what the program's INPUT instructions read, and values taken   *
+*  from fromProgram are what its OUTPUT instructions wrote.  take() throws                *
+*  NoSuchElementException once the program has halted and everything it wrote has been   *
+*  taken.  interact() returns true if the program's answers were correct.                 *
+*                                                                                         *
+*  An Interactor needs a public no-argument constructor so that it can be named on the   *
+*  command line.                                                                          *
+******************************************************************************************/
+  boolean interact(InputStream testData, SpscChannel toProgram, SpscChannel fromProgram)
+                                                                      throws IOException;
+} // Interactor
@@ -0,0 +1,735 @@
+// File:        JudgeServer.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+public class JudgeServer {
+/******************************************************************************************
+*  JudgeServer keeps one JVM resident so that the judge does not pay JVM startup for      *
+*  every run.  It listens on a loopback socket and runs each request on its own           *
+*  MarieSim, so no machine state is shared between submissions.  The judge's run script   *
+*  becomes a thin client that writes a request and copies the response to its output.     *
+*                                                                                         *
+*  The protocol is line oriented so that a shell script (e.g., using bash's /dev/tcp) can *
+*  act as the client.  One request is served per connection:                              *
+*                                                                                         *
+*     RUN <mexBytes> <inputBytes> [<maxInstructions> [<timeoutMillis> [<maxCycles>]]]\n   *
+*     <mexBytes bytes of .mex file><inputBytes bytes of program input>                    *
+*                                                                                         *
+*  A limit of 0 is no limit.  The cycle limit is in guest clock cycles (see               *
+*  MarieSim.CYCLES), so unlike the timeout it gives the same verdict on any host.         *
+*                                                                                         *
+*  The response is exactly what the console interpreter would have printed, streamed as   *
+*  the program runs, followed by one trailer line:                                        *
+*                                                                                         *
+*     #MARIE <machineState> <errorCode> <instructionCount> <elapsedMillis>                *
+*            <cpuMicros> <allocatedBytes> <outputBytes>                                   *
+*                                                                                         *
+*  The last three are what the run cost the host (see RunCost):  the CPU time and heap    *
+*  allocation of the worker thread while it ran, -1 where the JVM can't measure them,     *
+*  and the bytes of output ahead of the trailer.                                          *
+*                                                                                         *
+*  A suite of tests on one program can be sent as a single request instead:              *
+*                                                                                         *
+*     BATCH <mexBytes> <runs> [<maxInstructions> [<timeoutMillis> [<maxCycles>]]]\n      *
+*     <mex bytes>                                                                         *
+*     then for each run:  <inputBytes>\n<inputBytes bytes of program input>               *
+*                                                                                         *
+*  The runs are made together by a LockstepBatch, and the response is each run's output   *
+*  and trailer line in turn, as if each had been a RUN request.  The timeout is for the   *
+*  whole batch.  Each run is charged a share of the batch's CPU time and allocation in    *
+*  proportion to its instructions, and a last line sums up the batch:                     *
+*                                                                                         *
+*     #MARIE BATCH <runs> <instructionCount> <cpuMicros> <allocatedBytes> <outputBytes>   *
+*                                                                                         *
+*  where outputBytes is the output of all the runs, which is all held in memory until     *
+*  the batch is over.                                                                     *
+*                                                                                         *
+*  PING answers "#MARIE PONG", METRICS answers the MarieMetrics counters in Prometheus    *
+*  text format, and DRAIN starts a graceful shutdown.  Problems with the request itself   *
+*  are answered with "#MARIE ERROR <message>".  Console output never starts with '#',     *
+*  so the trailer can't be confused with program output.                                  *
+*                                                                                         *
+*  Backpressure:  at most workers + queue connections are accepted at any one time.       *
+*  When all of these slots are taken we stop calling accept(), so further clients wait    *
+*  in the listen backlog of the operating system instead of piling up in our heap.        *
+*                                                                                         *
+*  Scheduling:  a connection takes two turns on the pool.  The first reads the request,   *
+*  and a RUN or BATCH then goes back into the queue, which is ordered by the number of    *
+*  instructions the CostModel predicts the job will take, so that in a rejudge storm      *
+*  the quick runs aren't stuck behind slow ones.  To keep a slow job from starving, each  *
+*  millisecond it waits counts against its prediction as AGING_PER_MILLI instructions.    *
+*  Reading a request comes before every job.  Only the requests that have been accepted   *
+*  are ordered, so a rejudge wants a queue long enough to hold them.  With -fifo, jobs    *
+*  run in the order they arrived.                                                         *
+*                                                                                         *
+*  Time slicing:  with -quantum <instructions>, a RUN's machine is loaded on the pool     *
+*  and then handed to a MachineScheduler with as many workers again, which runs it        *
+*  that many instructions at a time, taking turns with the other machines.  A long RUN    *
+*  then can't hold a worker while short ones queue behind it, whatever the CostModel      *
+*  predicted.  BATCH requests still run on the pool, since a LockstepBatch already        *
+*  takes its runs in turns.                                                               *
+*                                                                                         *
+*  Draining:  on DRAIN (or JVM shutdown) we stop accepting, let queued and running        *
+*  requests finish for up to DRAIN_MILLIS, then stop any machines that are still going.   *
+*                                                                                         *
+*  Started with -loopcheck, every machine runs with a LoopDetector, so programs that are  *
+*  provably stuck halt with error 10 instead of running into their timeout.  With         *
+*  -fastloops, simple counting loops are fast-forwarded (see CountingLoop).  With -fuse,   *
+*  common instruction sequences run as superinstructions, and METRICS reports how often   *
+*  each form fired over every program served.  With -sanitize, each overflow or read of  *
+*  unwritten memory the Sanitizer finds is sent as a "#MARIE SANITIZE <finding>" line     *
+*  ahead of the trailer.  With -extended <words>, every machine is an extended machine    *
+*  with that much memory (see PagedMemory).  With -cache <directory>, the outcomes of RUN  *
+*  requests are kept in a VerdictCache there (of up to -cachemb megabytes), and a RUN     *
+*  that has been made before is answered from it.  With -warmup, the Warmup program is    *
+*  run before the first connection is accepted, so that the first requests don't run in  *
+*  the bytecode interpreter.                                                              *
+******************************************************************************************/
+  public static final int  DEFAULT_PORT       = 6116;
+  public static final int  DEFAULT_WORKERS    = Runtime.getRuntime().availableProcessors();
+  public static final int  DEFAULT_QUEUE      = 64;
+  public static final long DEFAULT_TIMEOUT    = 10000;    // Per request, in milliseconds.
+  public static final long DRAIN_MILLIS       = 30000;    // Grace period for draining.
+  public static final int  MAX_REQUEST_BYTES  = 16 << 20; // Program + input size cap.
+  public static final int  MAX_BATCH_RUNS     = 1024;     // Runs in one BATCH request.
+  static final int         HEADER_LIMIT       = 256;      // Longest request line we read.
+  static final String      SANITIZER_PREFIX   = "#MARIE SANITIZE ";
+  static final int         SOCKET_TIMEOUT     = 5000;     // For reading the request.
+  static final long        AGING_PER_MILLI    = 100000;   // Instructions of predicted cost
+                                                          // that waiting a millisecond
+                                                          // makes up for.
+
+  int                  port;
+  int               workers;
+  ServerSocket     listener = null;
+  ThreadPoolExecutor   pool;                 // Runs the machines.
+  Semaphore           slots;                 // Running + queued requests we will accept.
+  ScheduledExecutorService watchdog          // Enforces per-request timeouts.
+                           = Executors.newSingleThreadScheduledExecutor();
+  Set             runningMachines            // So that draining can stop stragglers
+                                             // (MarieSims and LockstepBatches).
+                           = Collections.synchronizedSet(new HashSet());
+  volatile boolean draining = false;
+  boolean         loopCheck = false;         // Give each machine a LoopDetector.
+  boolean         fastLoops = false;         // Fast-forward counting loops.
+  boolean              fuse = false;         // Run with Superinstructions.
+  boolean          sanitize = false;         // Give each machine a Sanitizer.
+  int         extendedWords = 0;             // Memory of extended machines; 0 for none.
+  VerdictCache        cache = null;          // Outcomes of past RUNs, if kept.
+  CostModel           costs = new CostModel();   // Predicts how long each job will run.
+  boolean              fifo = false;         // Run jobs in arrival order instead.
+  MachineScheduler scheduler = null;         // Time slices RUNs, if set.
+  long            startTime = System.currentTimeMillis();
+  AtomicLong   nextSequence = new AtomicLong();  // Numbers connections as they arrive.
+
+  public JudgeServer(int port, int workers, int queue) {
+/******************************************************************************************
+*  Builds a server that will run at most workers machines at a time with up to queue      *
+*  further requests waiting.  Nothing is opened until serve() is called.                  *
+******************************************************************************************/
+    this.port = port;
+    this.workers = workers;
+    slots = new Semaphore(workers + queue);
+    pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                                  new PriorityBlockingQueue());
+  } // JudgeServer()
+
+
+  public void serve() throws IOException {
+/******************************************************************************************
+*  Accepts connections until the server is drained.  Each accepted connection holds one   *
+*  slot until its response has been sent.                                                 *
+******************************************************************************************/
+    listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    System.out.println(" MARIE judge server listening on "
+                       + listener.getLocalSocketAddress() + " with " + workers + " workers.");
+    while (!draining) {
+      try {
+        slots.acquire();                   // Blocks while we are saturated.
+      }
+      catch (InterruptedException e) {
+        break;
+      }
+      Socket client;
+      try {
+        client = listener.accept();
+      }
+      catch (SocketException e) {          // Listener closed by drain().
+        slots.release();
+        break;
+      }
+      pool.execute(new Connection(client)); // Never rejected: slots bound the queue.
+    } // while
+  } // serve()
+
+
+  public void drain(long graceMillis) {
+/******************************************************************************************
+*  Graceful shutdown: stop accepting, finish the work we have already taken on, and only  *
+*  stop machines by force once the grace period has run out.                              *
+******************************************************************************************/
+    draining = true;
+    try {
+      if (listener != null)
+        listener.close();
+    }
+    catch (IOException e) {
+    }
+    pool.shutdown();
+    try {
+      long deadline = System.currentTimeMillis() + graceMillis;
+      boolean finished = pool.awaitTermination(graceMillis, TimeUnit.MILLISECONDS);
+      if (finished && (scheduler != null))  // The pool is done handing it machines.
+        finished = scheduler.awaitIdle(Math.max(1, deadline - System.currentTimeMillis()));
+      if (!finished) {
+        synchronized (runningMachines) {
+          Iterator i = runningMachines.iterator();
+          while (i.hasNext()) {
+            Object running = i.next();
+            if (running instanceof LockstepBatch)
+              ((LockstepBatch) running).stop();
+            else
+              ((MarieSim) running).stop();
+          } // while
+        }
+        pool.awaitTermination(graceMillis, TimeUnit.MILLISECONDS);
+        if (scheduler != null)
+          scheduler.awaitIdle(graceMillis);
+      }
+    }
+    catch (InterruptedException e) {
+    }
+    if (scheduler != null)
+      scheduler.shutdown();
+    watchdog.shutdownNow();
+  } // drain()
+
+
+  abstract class Job implements Runnable {
+/******************************************************************************************
+*  A RUN or BATCH that has been read, waiting its turn.                                   *
+******************************************************************************************/
+    long             cost;                   // Predicted instructions.
+    Connection connection;                   // Whose request it is.
+    boolean      detached = false;           // Left to the scheduler to finish, and to
+                                             // close the connection.
+
+    Job(long cost) { this.cost = cost; }
+  } // Job
+
+
+  class Connection implements Runnable, Comparable {
+/******************************************************************************************
+*  Serves a single request on an accepted socket.  The first turn reads the request and   *
+*  answers it if it can be answered at once;  a RUN or BATCH is queued again, ranked by   *
+*  cost, and run on the second turn.                                                      *
+******************************************************************************************/
+    Socket      socket;
+    InputStream     in;
+    PrintStream    out;
+    Job            job = null;               // The request, once it has been read.
+    long      priority = Long.MIN_VALUE;     // Queue order:  lowest priority first,
+    long      sequence = nextSequence.getAndIncrement();  // then first come.
+    long        queued = 0;                  // When the job was queued (nanoTime).
+
+    Connection(Socket socket) { this.socket = socket; }
+
+    public void run() {
+      boolean finished = true;
+      try {
+        if (job == null) {
+          socket.setSoTimeout(SOCKET_TIMEOUT);
+          in = new BufferedInputStream(socket.getInputStream());
+          out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+          try {
+            job = serveRequest(in, out);
+          }
+          catch (IOException e) {
+            out.println("#MARIE ERROR " + e.getMessage());
+          }
+          if (job != null)
+            job.connection = this;
+          if ((job != null) && requeue()) {
+            finished = false;                // Another worker has it now.
+            return;
+          }
+        }
+        if (job != null) {
+          if (queued != 0)
+            MarieMetrics.global.recordQueueWait(System.nanoTime() - queued);
+          job.run();
+          if (job.detached) {
+            finished = false;                // The scheduler has it now.
+            return;
+          }
+        }
+        out.flush();
+      }
+      catch (IOException e) {               // Client went away; nothing to tell it.
+      }
+      finally {
+        if (finished)
+          close();
+      }
+    } // run()
+
+    void close() {
+      try {
+        socket.close();
+      }
+      catch (IOException e) {
+      }
+      slots.release();
+    } // close()
+
+    boolean requeue() {
+/******************************************************************************************
+*  Puts this connection back into the queue, ranked by the cost of its job less what its  *
+*  wait will be worth:  a job queued t ms after another is worth t * AGING_PER_MILLI     *
+*  fewer instructions than that one had to be to go first.  Returns false, and the job    *
+*  is run on this turn, if the pool is shutting down.                                     *
+******************************************************************************************/
+      if (fifo)
+        priority = 0;
+      else
+        priority = job.cost + (System.currentTimeMillis() - startTime) * AGING_PER_MILLI;
+      queued = System.nanoTime();
+      try {
+        pool.execute(this);
+        return true;
+      }
+      catch (RejectedExecutionException e) {
+        queued = 0;
+        return false;
+      }
+    } // requeue()
+
+    public int compareTo(Object o) {
+      Connection other = (Connection) o;
+      if (priority != other.priority)
+        return (priority < other.priority) ? -1 : 1;
+      return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+    } // compareTo()
+  } // Connection
+
+
+  Job serveRequest(InputStream in, final PrintStream out) throws IOException {
+/******************************************************************************************
+*  Parses the request line and dispatches on its verb.  Returns the Job to run for a RUN  *
+*  or BATCH, and null for requests that have been answered.                               *
+******************************************************************************************/
+    StringTokenizer tokens = new StringTokenizer(readHeader(in));
+    String verb = tokens.hasMoreTokens() ? tokens.nextToken() : "";
+    if (verb.equals("PING")) {
+      out.println("#MARIE PONG");
+      return null;
+    }
+    if (verb.equals("METRICS")) {
+      out.print(MarieMetrics.global.toPrometheus());
+      return null;
+    }
+    if (verb.equals("DRAIN")) {
+      out.println("#MARIE DRAINING");
+      new Thread(new Runnable() {           // Can't drain from inside the pool.
+        public void run() { drain(DRAIN_MILLIS); }
+      }).start();
+      return null;
+    }
+    if (verb.equals("BATCH"))
+      return serveBatch(tokens, in, out);
+    if (!verb.equals("RUN"))
+      throw new IOException("Unknown request " + verb);
+    int  mexBytes, inputBytes;
+    long maxInstructions = 0,
+         timeout = DEFAULT_TIMEOUT,
+         maxCycles = 0;
+    try {
+      mexBytes = Integer.parseInt(tokens.nextToken());
+      inputBytes = Integer.parseInt(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        maxInstructions = Long.parseLong(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        timeout = Long.parseLong(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        maxCycles = Long.parseLong(tokens.nextToken());
+    }
+    catch (RuntimeException e) {            // NoSuchElement or NumberFormat.
+      throw new IOException("Malformed RUN request");
+    }
+    if ((mexBytes < 0) || (inputBytes < 0)
+         || ((long) mexBytes + inputBytes > MAX_REQUEST_BYTES)   // Can't overflow.
+         || (timeout <= 0))
+      throw new IOException("Request size or limits out of range");
+    final byte[] program = readFully(in, mexBytes),
+                   input = readFully(in, inputBytes);
+    final long   maxRun = maxInstructions,
+                 maxMillis = timeout,
+                 maxClock = maxCycles;
+    return new Job(costs.predict(Arrays.hashCode(program), Arrays.hashCode(input))) {
+      public void run() {
+        runRequest(program, input, maxRun, maxMillis, maxClock, out, this);
+      }
+    };
+  } // serveRequest()
+
+
+  void runRequest(final byte[] program, final byte[] input, long maxInstructions,
+                  long timeout, long maxCycles, final PrintStream client, final Job job) {
+/******************************************************************************************
+*  Runs one program on a fresh machine exactly as runInterpreter() would, with the        *
+*  instruction and cycle limits and the timeout applied, and writes the trailer line.     *
+*  With a VerdictCache, a run made before is answered from the cache instead, and a new   *
+*  one that ends on its own is added to it.                                               *
+*                                                                                         *
+*  With a MachineScheduler, the machine is submitted to it once loaded and job is marked  *
+*  detached:  the rest, from the trailer line to closing the connection, is done on the   *
+*  scheduler once the machine stops.                                                      *
+******************************************************************************************/
+    final long start = System.currentTimeMillis();
+    final RunCost cost = RunCost.begin();
+    VerdictCache.Recorder cacheRecorder = null;
+    PrintStream out = client;
+    if (cache != null) {
+      cacheRecorder = new VerdictCache.Recorder(client);
+      out = new PrintStream(cacheRecorder);
+    }
+    final VerdictCache.Recorder recorder = cacheRecorder;
+    final RunCost.Counter counter = new RunCost.Counter(out);
+    out = new PrintStream(counter);
+    final MarieSim machine = new MarieSim(new ByteArrayInputStream(input), out);
+    machine.instructionLimit = maxInstructions;
+    machine.cycleLimit = maxCycles;
+    if (loopCheck)
+      machine.loopDetector = new LoopDetector();
+    machine.fastLoops = fastLoops;
+    machine.fuse = fuse;
+    if (sanitize)
+      machine.sanitizer = new Sanitizer(out, SANITIZER_PREFIX);
+    if (extendedWords > 0)
+      machine.extendedMemory = new PagedMemory(extendedWords);
+    String cacheKey = null;
+    if (cache != null) {
+      cacheKey = VerdictCache.key(program, input, machine);
+      VerdictCache.Verdict verdict = cache.get(cacheKey);
+      if (verdict != null) {
+        client.write(verdict.output, 0, verdict.output.length);
+        cost.end(0, verdict.output.length);
+        client.println("#MARIE " + verdict.machineState + " " + verdict.errorCode + " "
+                       + verdict.instructionCount + " " + (System.currentTimeMillis() - start)
+                       + " " + cost);
+        return;
+      }
+    }
+    machine.loadProgram(new ByteArrayInputStream(program));
+    if (machine.errorFound) {
+      out.flush();
+      cost.end(0, counter.count);
+      out.println("#MARIE " + MarieSim.MARIE_NO_PROGRAM_LOADED + " 4 0 "
+                  + (System.currentTimeMillis() - start) + " " + cost);
+      return;
+    }
+    final String key = cacheKey;
+    final PrintStream machineOut = out;
+    final Runnable trailer = new Runnable() {
+      public void run() {
+        machineOut.flush();
+        cost.end(machine.instructionCount, counter.count);
+        if (cache != null) {
+          VerdictCache.Verdict verdict = VerdictCache.outcome(machine, recorder.recorded());
+          if (verdict != null)
+            cache.put(key, verdict);
+        }
+        costs.record(Arrays.hashCode(program), Arrays.hashCode(input),
+                     machine.instructionCount);
+        machineOut.println("#MARIE " + machine.machineState + " " + machine.errorCode + " "
+                           + machine.instructionCount + " "
+                           + (System.currentTimeMillis() - start) + " " + cost);
+      }
+    };
+    final ScheduledFuture timer = watchdog.schedule(new Runnable() {
+      public void run() { machine.stop(); }
+    }, timeout, TimeUnit.MILLISECONDS);
+    runningMachines.add(machine);
+    machine.machineState = MarieSim.MARIE_RUNNING;
+    if (scheduler != null) {
+      cost.pause();                          // Until its first quantum.
+      job.detached = true;
+      scheduler.submit(machine, cost, new Runnable() {
+        public void run() {
+          try {
+            runningMachines.remove(machine);
+            timer.cancel(false);
+            trailer.run();
+            client.flush();
+          }
+          finally {
+            job.connection.close();
+          }
+        }
+      });
+      return;
+    }
+    try {
+      machine.runProgram();
+    }
+    finally {
+      runningMachines.remove(machine);
+      timer.cancel(false);
+    }
+    trailer.run();
+  } // runRequest()
+
+
+  Job serveBatch(StringTokenizer tokens, InputStream in, final PrintStream out)
+                                                                      throws IOException {
+/******************************************************************************************
+*  Reads the rest of a BATCH request and returns the Job that runs it and writes the      *
+*  response.  Its cost is the sum of the predictions for its runs.                        *
+******************************************************************************************/
+    int  mexBytes, runs;
+    long maxInstructions = 0,
+         timeout = DEFAULT_TIMEOUT,
+         maxCycles = 0;
+    try {
+      mexBytes = Integer.parseInt(tokens.nextToken());
+      runs = Integer.parseInt(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        maxInstructions = Long.parseLong(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        timeout = Long.parseLong(tokens.nextToken());
+      if (tokens.hasMoreTokens())
+        maxCycles = Long.parseLong(tokens.nextToken());
+    }
+    catch (RuntimeException e) {            // NoSuchElement or NumberFormat.
+      throw new IOException("Malformed BATCH request");
+    }
+    if ((mexBytes < 0) || (mexBytes > MAX_REQUEST_BYTES) || (runs < 1)
+         || (runs > MAX_BATCH_RUNS) || (timeout <= 0))
+      throw new IOException("Request size or limits out of range");
+    final byte[] program = readFully(in, mexBytes);
+    long total = mexBytes,
+         cost = 0;
+    final InputStream[] inputs = new InputStream[runs];
+    final int[] inputHashes = new int[runs];
+    int programHash = Arrays.hashCode(program);
+    for (int i = 0; i < runs; i++) {
+      int inputBytes;
+      try {
+        inputBytes = Integer.parseInt(readHeader(in).trim());
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("Malformed BATCH input length");
+      }
+      total += inputBytes;
+      if ((inputBytes < 0) || (total > MAX_REQUEST_BYTES))
+        throw new IOException("Request size or limits out of range");
+      byte[] input = readFully(in, inputBytes);
+      inputs[i] = new ByteArrayInputStream(input);
+      inputHashes[i] = Arrays.hashCode(input);
+      cost += costs.predict(programHash, inputHashes[i]);
+    } // for
+    final long maxRun = maxInstructions,
+               maxMillis = timeout,
+               maxClock = maxCycles;
+    return new Job(cost) {
+      public void run() {
+        runBatch(program, inputs, inputHashes, maxRun, maxMillis, maxClock, out);
+      }
+    };
+  } // serveBatch()
+
+
+  void runBatch(byte[] program, InputStream[] inputs, int[] inputHashes,
+                long maxInstructions, long timeout, long maxCycles, PrintStream out) {
+/******************************************************************************************
+*  Runs one program on each of the inputs with a LockstepBatch.  Each run's output is     *
+*  collected so that the outputs can be sent one after the other.                         *
+******************************************************************************************/
+    long start = System.currentTimeMillis();
+    RunCost cost = RunCost.begin();
+    ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[inputs.length];
+    PrintStream[] outs = new PrintStream[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      outputs[i] = new ByteArrayOutputStream();
+      outs[i] = new PrintStream(outputs[i]);
+    } // for
+    final LockstepBatch batch = new LockstepBatch(inputs, outs);
+    batch.instructionLimit = maxInstructions;
+    batch.cycleLimit = maxCycles;
+    batch.loopCheck = loopCheck;
+    batch.fastLoops = fastLoops;
+    batch.fuse = fuse;
+    batch.sanitize = sanitize;
+    batch.extendedWords = extendedWords;
+    if (batch.load(program)) {
+      ScheduledFuture timer = watchdog.schedule(new Runnable() {
+        public void run() { batch.stop(); }
+      }, timeout, TimeUnit.MILLISECONDS);
+      runningMachines.add(batch);
+      try {
+        batch.run();
+      }
+      finally {
+        runningMachines.remove(batch);
+        timer.cancel(false);
+      }
+    }
+    long millis = System.currentTimeMillis() - start,
+         instructions = 0,
+         outputBytes = 0;
+    for (int i = 0; i < inputs.length; i++) {
+      outs[i].flush();
+      instructions += batch.instructionCount[i];
+      outputBytes += outputs[i].size();
+    } // for
+    cost.end(instructions, outputBytes);
+    int programHash = Arrays.hashCode(program);
+    for (int i = 0; i < inputs.length; i++) {
+      costs.record(programHash, inputHashes[i], batch.instructionCount[i]);
+      out.write(outputs[i].toByteArray(), 0, outputs[i].size());
+      out.println(batch.trailer(i, millis) + " "
+                  + cost.share(batch.instructionCount[i], outputs[i].size()));
+    } // for
+    out.println("#MARIE BATCH " + inputs.length + " " + cost.instructions + " " + cost);
+  } // runBatch()
+
+
+  static String readHeader(InputStream in) throws IOException {
+/******************************************************************************************
+*  Reads the request line one byte at a time.  (A Reader would buffer ahead into the      *
+*  binary program bytes that follow it.)                                                  *
+******************************************************************************************/
+    StringBuffer line = new StringBuffer();
+    int c;
+    while ((c = in.read()) != '\n') {
+      if (c < 0)
+        throw new EOFException("Connection closed before request line");
+      if (line.length() >= HEADER_LIMIT)
+        throw new IOException("Request line too long");
+      if (c != '\r')
+        line.append((char) c);
+    } // while
+    return line.toString();
+  } // readHeader()
+
+
+  static byte[] readFully(InputStream in, int length) throws IOException {
+    byte[] buffer = new byte[length];
+    new DataInputStream(in).readFully(buffer);
+    return buffer;
+  } // readFully()
+
+
+  public static void main(String args[]) {
+/******************************************************************************************
+*  Entry point for                                                                        *
+*     "MarieSim -server [-loopcheck] [-fastloops] [-fuse] [-sanitize]                     *
+*                       [-extended <words>] [-cache <directory> [-cachemb <megabytes>]]   *
+*                       [-fifo] [-quantum <instructions>] [-warmup]                       *
+*                       [port [workers [queue]]]".                                        *
+*  args[0] is the -server switch itself.                                                  *
+******************************************************************************************/
+    int[] numbers = { DEFAULT_PORT, DEFAULT_WORKERS, DEFAULT_QUEUE };
+    int n = 0;
+    boolean loopCheck = false,
+            fastLoops = false,
+            fuse = false,
+            sanitize = false,
+            fifo = false,
+            warmup = false;
+    int extendedWords = 0;
+    long quantum = 0;
+    String cacheDirectory = null;
+    long cacheBytes = VerdictCache.DEFAULT_MAX_BYTES;
+    try {
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].equals("-loopcheck"))
+          loopCheck = true;
+        else if (args[i].equals("-fastloops"))
+          fastLoops = true;
+        else if (args[i].equals("-fuse"))
+          fuse = true;
+        else if (args[i].equals("-sanitize"))
+          sanitize = true;
+        else if (args[i].equals("-extended") && (i+1 < args.length)) {
+          extendedWords = PagedMemory.parseSize(args[++i]);
+          if (extendedWords < 0)
+            throw new NumberFormatException();
+        }
+        else if (args[i].equals("-cache") && (i+1 < args.length))
+          cacheDirectory = args[++i];
+        else if (args[i].equals("-cachemb") && (i+1 < args.length))
+          cacheBytes = Long.parseLong(args[++i]) << 20;
+        else if (args[i].equals("-fifo"))
+          fifo = true;
+        else if (args[i].equals("-quantum") && (i+1 < args.length)) {
+          quantum = Long.parseLong(args[++i]);
+          if (quantum <= 0)
+            throw new NumberFormatException();
+        }
+        else if (args[i].equals("-warmup"))
+          warmup = true;
+        else if (n < numbers.length)
+          numbers[n++] = Integer.parseInt(args[i]);
+        else
+          throw new NumberFormatException();
+      } // for
+    }
+    catch (NumberFormatException e) {
+      System.out.println(" Usage: MarieSim -server [-loopcheck] [-fastloops] [-fuse]"
+                         + " [-sanitize] [-extended <words>]"
+                         + " [-cache <directory> [-cachemb <megabytes>]] [-fifo]"
+                         + " [-quantum <instructions>] [-warmup]"
+                         + " [port [workers [queue]]]");
+      return;
+    }
+    final JudgeServer server = new JudgeServer(numbers[0], Math.max(1, numbers[1]),
+                                               Math.max(0, numbers[2]));
+    server.loopCheck = loopCheck;
+    server.fastLoops = fastLoops;
+    server.fuse = fuse;
+    server.sanitize = sanitize;
+    server.extendedWords = extendedWords;
+    server.fifo = fifo;
+    if (quantum > 0)
+      server.scheduler = new MachineScheduler(server.workers, quantum);
+    if (cacheDirectory != null) {
+      try {
+        server.cache = new VerdictCache(new File(cacheDirectory), cacheBytes);
+      }
+      catch (IOException e) {
+        System.out.println(" "+e);
+        return;
+      }
+    }
+    if (warmup) {
+      MarieSim options = new MarieSim();
+      options.fuse = fuse;
+      options.fastLoops = fastLoops;
+      if (loopCheck)
+        options.loopDetector = new LoopDetector();
+      if (!Warmup.run(options))
+        System.out.println(" Warm-up failed.");
+    }
+    MarieMetrics.registerMBean();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        if (!server.draining)
+          server.drain(DRAIN_MILLIS);
+      }
+    });
+    try {
+      server.serve();
+    }
+    catch (IOException e) {
+      System.out.println(" "+e);
+    }
+  } // main()
+} // JudgeServer
@@ -0,0 +1,462 @@
+// File:        LockstepBatch.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class LockstepBatch {
+/******************************************************************************************
+*  Runs one program on many inputs at once.  A hidden test suite runs the same .mex on    *
+*  dozens of inputs, and most of those runs take the same path through the program for    *
+*  most of their instructions.  While they do, there is only one PC and one instruction   *
+*  to fetch and decode, and the work of the instruction is a loop over the runs ("lanes") *
+*  of a structure of arrays:  the AC of every lane is one short[], and so is each word of *
+*  memory that some lane has written.  A word that no lane has written yet is kept once,  *
+*  in image[], so that the program itself isn't copied per lane.  The loops for LOAD,     *
+*  STORE, ADD, SUBT and CLEAR run over all the lanes with no branches, which is what      *
+*  C2 turns into SIMD code.                                                               *
+*                                                                                         *
+*  A lane leaves the group, before the instruction at which it would part company, when  *
+*  its path (or its code, if it has overwritten an instruction) differs from that of     *
+*  most of the group:  at a SKIPCOND or JUMPI that goes another way, or at an INPUT       *
+*  whose next token isn't a plain int (so it would fail, or needs a Scanner).  The lane   *
+*  is then copied into an ordinary MarieSim, which runs it to the end after the group is  *
+*  done.  The whole group leaves for the same reasons a single machine would stop:  an    *
+*  invalid instruction, the instruction or cycle limit, or stop().  Everything that decides how a  *
+*  run ends is therefore done by MarieSim itself, and each lane's output, final state,    *
+*  error code and instruction count are exactly those of a run on its own.  (The MAR,     *
+*  MBR and IR of a lane that leaves are not carried over; each is reloaded before it is   *
+*  next read.)                                                                            *
+*                                                                                         *
+*  With loop checking or the Sanitizer on, every lane runs on its own machine from the    *
+*  start, since the group keeps neither the state history a LoopDetector needs nor the   *
+*  record of written words a Sanitizer does.  So does every lane of an extended machine   *
+*  (see PagedMemory), since the group's memory ends at 4K.                                *
+******************************************************************************************/
+  int                 lanes;                 // Number of runs in the batch.
+  IntScanner[]     scanners;                 // Each lane's INPUT values,
+  PrintStream[]        outs;                 // and where its output goes.
+  long     instructionLimit = 0;             // As for MarieSim.
+  long           cycleLimit = 0;
+  boolean         loopCheck = false;         // Options for the machines lanes leave
+  boolean         fastLoops = false;         // the group for.
+  boolean              fuse = false;
+  boolean          sanitize = false;
+  int         extendedWords = 0;
+  volatile boolean stopRequested = false;
+  volatile MarieSim running = null;          // Machine running a lane that left.
+
+  byte[]                mex;                 // The program, as loaded,
+  short[]             image;                 // its memory image,
+  int            startPC;                    // and its first address.
+  short[][]          memory;                 // Per-lane words, null if not yet written.
+  short[]                ac;                 // Per-lane AC.
+  int[]                keys;                 // Per-lane scratch for agree().
+  boolean[]          active;                 // Lanes still in the group.
+  int           activeCount = 0;
+  int                    pc;                 // The group's PC,
+  long                count = 0,             // and instruction
+                     cycles = 0;             // and cycle counts.
+  long[]         inputCount,                 // Per-lane INPUT and OUTPUT counts while in
+                outputCount;                 // the group.
+  ArrayList        detached = new ArrayList();  // Machines for lanes that left, in order.
+  MarieSim[]       machines;                 // The machine each lane left for, if any.
+
+  int[]        machineState;                 // Outcome of each lane.
+  int[]           errorCode;
+  long[]   instructionCount;
+
+  LockstepBatch(InputStream[] inputs, PrintStream[] outs) {
+    lanes = inputs.length;
+    scanners = new IntScanner[lanes];
+    for (int l = 0; l < lanes; l++)
+      scanners[l] = new IntScanner(inputs[l]);
+    this.outs = outs;
+    machineState = new int[lanes];
+    errorCode = new int[lanes];
+    instructionCount = new long[lanes];
+    machines = new MarieSim[lanes];
+  } // LockstepBatch()
+
+
+  boolean load(byte[] mex) {
+/******************************************************************************************
+*  Loads the program for every lane.  If it can't be loaded, each lane gets the messages  *
+*  a single machine would have printed and ends with error 4, and false is returned.     *
+******************************************************************************************/
+    ByteArrayOutputStream messages = new ByteArrayOutputStream();
+    MarieSim template = new MarieSim(new ByteArrayInputStream(new byte[0]),
+                                     new PrintStream(messages));
+    if (extendedWords > 0)
+      template.extendedMemory = new PagedMemory(extendedWords);
+    template.loadProgram(new ByteArrayInputStream(mex));
+    if (template.errorFound) {
+      for (int l = 0; l < lanes; l++) {
+        outs[l].write(messages.toByteArray(), 0, messages.size());
+        machineState[l] = MarieSim.MARIE_NO_PROGRAM_LOADED;
+        errorCode[l] = 4;
+      } // for
+      return false;
+    }
+    this.mex = mex;
+    image = template.memory.clone();
+    startPC = template.regPC.getValue();
+    return true;
+  } // load()
+
+
+  void run() {
+/******************************************************************************************
+*  Runs the loaded program on every lane:  in lockstep for as long as the group holds     *
+*  together, then each lane that left on its own machine.                                 *
+******************************************************************************************/
+    long start = System.nanoTime();
+    memory = new short[MarieSim.MAX_MARIE_ADDR+1][];
+    ac = new short[lanes];
+    keys = new int[lanes];
+    active = new boolean[lanes];
+    Arrays.fill(active, true);
+    activeCount = lanes;
+    inputCount = new long[lanes];
+    outputCount = new long[lanes];
+    pc = startPC;
+    count = 0;
+    cycles = 0;
+    if (loopCheck || sanitize || (extendedWords > 0))
+      detachAll();
+    while (activeCount > 0)
+      step();
+    long nanos = System.nanoTime() - start;
+    for (int l = 0; l < lanes; l++)
+      if (machines[l] == null)                 // Halted in the group.
+        MarieMetrics.global.recordRun(machineState[l], instructionCount[l],
+                                      inputCount[l], outputCount[l], nanos);
+    for (int i = 0; i < detached.size(); i++) {
+      MarieSim m = (MarieSim) detached.get(i);
+      running = m;
+      if (stopRequested)
+        m.stop();
+      m.runProgram();
+      running = null;
+    } // for
+    for (int l = 0; l < lanes; l++)
+      if (machines[l] != null) {
+        machineState[l] = machines[l].machineState;
+        errorCode[l] = machines[l].errorCode;
+        instructionCount[l] = machines[l].instructionCount;
+      }
+  } // run()
+
+
+  void stop() {
+/******************************************************************************************
+*  Stops every lane at its next instruction boundary.  Safe to call from any thread.      *
+******************************************************************************************/
+    stopRequested = true;
+    MarieSim m = running;
+    if (m != null)
+      m.stop();
+  } // stop()
+
+
+  void step() {
+/******************************************************************************************
+*  Runs one instruction for the group, or sends lanes off on their own.                   *
+******************************************************************************************/
+    if (stopRequested || ((instructionLimit > 0) && (count >= instructionLimit))
+        || ((cycleLimit > 0) && (cycles >= cycleLimit))) {
+      detachAll();                               // Their machines stop them straight
+      return;                                    // away, in the usual way.
+    }
+    int word = image[pc];
+    if (memory[pc] != null) {                    // Some lane has written over it.
+      for (int l = 0; l < lanes; l++)
+        if (active[l])
+          keys[l] = memory[pc][l];
+      if (!agree(keys))
+        return;
+      word = keys[first()];
+    }
+    int opcode = (word >> 12) & 0x000F,
+        x = word & 0x0FFF,
+        next = (pc + 1) & MarieSim.MAX_MARIE_ADDR;
+    short[] w = memory[x];
+    switch (opcode) {
+      case  0:                                   // JnS
+        memory[x] = null;
+        image[x] = (short) next;
+        Arrays.fill(ac, (short) (x + 1));
+        next = (x + 1) & MarieSim.MAX_MARIE_ADDR;
+        break;
+      case  1:                                   // LOAD
+        if (w == null)
+          Arrays.fill(ac, image[x]);
+        else
+          System.arraycopy(w, 0, ac, 0, lanes);
+        break;
+      case  2:                                   // STORE
+        if (w == null)
+          memory[x] = w = new short[lanes];
+        System.arraycopy(ac, 0, w, 0, lanes);
+        break;
+      case  3:                                   // ADD
+      case  4:                                   // SUBT
+        if (w == null) {
+          short y = (opcode == 3) ? image[x] : (short) -image[x];
+          for (int l = 0; l < lanes; l++)
+            ac[l] = (short) (ac[l] + y);
+        }
+        else if (opcode == 3)
+          for (int l = 0; l < lanes; l++)
+            ac[l] = (short) (ac[l] + w[l]);
+        else
+          for (int l = 0; l < lanes; l++)
+            ac[l] = (short) (ac[l] - w[l]);
+        break;
+      case  5:                                   // INPUT
+        for (int l = 0; l < lanes; l++)
+          if (active[l] && !scanners[l].hasPlainInt())
+            detach(l);
+        if (activeCount == 0)
+          return;
+        for (int l = 0; l < lanes; l++)
+          if (active[l]) {
+            ac[l] = (short) scanners[l].nextInt();
+            inputCount[l]++;
+          }
+        break;
+      case  6:                                   // OUTPUT
+        for (int l = 0; l < lanes; l++)
+          if (active[l]) {
+            outs[l].println(ac[l]);
+            outputCount[l]++;
+          }
+        break;
+      case  7:                                   // HALT
+        count++;
+        cycles += MarieSim.CYCLES[7];
+        for (int l = 0; l < lanes; l++)
+          if (active[l]) {
+            machineState[l] = MarieSim.MARIE_HALTED_NORMAL;
+            instructionCount[l] = count;
+            active[l] = false;
+          }
+        activeCount = 0;
+        return;
+      case  8:                                   // SKIPCOND
+        int cond = (word & 0x0C00) >> 10;
+        if (cond == 3) {
+          detachAll();
+          return;
+        }
+        for (int l = 0; l < lanes; l++)
+          if (active[l])
+            keys[l] = CountingLoop.passes(ac[l], cond) ? 1 : 0;
+        if (!agree(keys))
+          return;
+        if (keys[first()] == 1)
+          next = (next + 1) & MarieSim.MAX_MARIE_ADDR;
+        break;
+      case  9:                                   // JUMP
+        next = x;
+        break;
+      case 10:                                   // CLEAR
+        Arrays.fill(ac, (short) 0);
+        break;
+      case 11:                                   // ADDI
+        for (int l = 0; l < lanes; l++)
+          ac[l] = (short) (ac[l] + word(word(x, l) & 0x0FFF, l));
+        break;
+      case 12:                                   // JUMPI
+        for (int l = 0; l < lanes; l++)
+          if (active[l])
+            keys[l] = word(x, l) & 0x0FFF;
+        if (!agree(keys))
+          return;
+        next = keys[first()];
+        break;
+      case 13:                                   // LOADI
+        for (int l = 0; l < lanes; l++)
+          ac[l] = word(word(x, l) & 0x0FFF, l);
+        break;
+      case 14:                                   // STOREI
+        for (int l = 0; l < lanes; l++) {
+          int addr = word(x, l) & 0x0FFF;
+          if (memory[addr] == null) {
+            memory[addr] = new short[lanes];
+            Arrays.fill(memory[addr], image[addr]);
+          }
+          memory[addr][l] = ac[l];
+        } // for
+        break;
+      default:                                   // Invalid opcode.
+        detachAll();
+        return;
+    } // switch
+    count++;
+    cycles += MarieSim.CYCLES[opcode];
+    pc = next;
+  } // step()
+
+
+  short word(int addr, int lane) {
+    short[] w = memory[addr];
+    return (w == null) ? image[addr] : w[lane];
+  } // word()
+
+
+  int first() {
+    int l = 0;
+    while (!active[l])
+      l++;
+    return l;
+  } // first()
+
+
+  boolean agree(int[] keys) {
+/******************************************************************************************
+*  keys holds a value for each active lane (the next instruction, a branch outcome or a  *
+*  jump target).  Lanes whose key differs from the most common one leave the group.       *
+*  Returns true if all the active lanes had the same key to begin with.                   *
+******************************************************************************************/
+    int[] sorted = new int[activeCount];
+    int n = 0;
+    for (int l = 0; l < lanes; l++)
+      if (active[l])
+        sorted[n++] = keys[l];
+    Arrays.sort(sorted);
+    if (sorted[0] == sorted[n-1])
+      return true;
+    int best = sorted[0],
+        bestRun = 0;
+    for (int i = 0, j; i < n; i = j) {
+      for (j = i; (j < n) && (sorted[j] == sorted[i]); j++)
+        ;
+      if (j - i > bestRun) {
+        best = sorted[i];
+        bestRun = j - i;
+      }
+    } // for
+    for (int l = 0; l < lanes; l++)
+      if (active[l] && (keys[l] != best))
+        detach(l);
+    return false;
+  } // agree()
+
+
+  void detachAll() {
+    for (int l = 0; l < lanes; l++)
+      if (active[l])
+        detach(l);
+  } // detachAll()
+
+
+  void detach(int lane) {
+/******************************************************************************************
+*  Copies lane into a MarieSim of its own, ready to run the instruction at the group's   *
+*  PC, and takes it out of the group.  The instructions, INPUTs and OUTPUTs it ran in    *
+*  the group are handed to MarieMetrics here; runProgram() records the rest.            *
+******************************************************************************************/
+    MarieSim m = new MarieSim(new ByteArrayInputStream(new byte[0]), outs[lane]);
+    m.scanner = scanners[lane];
+    m.instructionLimit = instructionLimit;
+    m.cycleLimit = cycleLimit;
+    m.fastLoops = fastLoops;
+    m.fuse = fuse;
+    if (loopCheck)
+      m.loopDetector = new LoopDetector();
+    if (sanitize)
+      m.sanitizer = new Sanitizer(outs[lane], JudgeServer.SANITIZER_PREFIX);
+    if (extendedWords > 0)
+      m.extendedMemory = new PagedMemory(extendedWords);
+    m.readProgram(new ByteArrayInputStream(mex));
+    for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++)
+      if (m.memory[addr] != word(addr, lane))
+        m.writeMemory(addr, word(addr, lane));
+    m.regAC.setValue(ac[lane]);
+    m.regPC.setValue(pc);
+    m.instructionCount = count;
+    m.cycleCount = cycles;
+    m.inputCount = inputCount[lane];
+    m.outputCount = outputCount[lane];
+    m.machineState = MarieSim.MARIE_RUNNING;
+    MarieMetrics.global.recordWork(count, inputCount[lane], outputCount[lane]);
+    machines[lane] = m;
+    detached.add(m);
+    active[lane] = false;
+    activeCount--;
+  } // detach()
+
+
+  String trailer(int lane, long millis) {
+/******************************************************************************************
+*  The JudgeServer trailer line for lane.                                                 *
+******************************************************************************************/
+    return "#MARIE " + machineState[lane] + " " + errorCode[lane] + " "
+           + instructionCount[lane] + " " + millis;
+  } // trailer()
+
+
+  public static void main(String args[]) {
+/******************************************************************************************
+*  Entry point for "MarieSim -batch <file>.mex <input file> ...":  runs the program on    *
+*  each input and prints, for each in turn, its output and a JudgeServer trailer line,    *
+*  then the line that sums up the batch.  args[0] is the -batch switch itself.            *
+******************************************************************************************/
+    if (args.length < 3) {
+      System.out.println(" Usage: MarieSim -batch <file>" + MarieSim.MEX_TYPE
+                         + " <input file> ...");
+      return;
+    }
+    long start = System.currentTimeMillis();
+    int lanes = args.length - 2;
+    InputStream[] inputs = new InputStream[lanes];
+    ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[lanes];
+    PrintStream[] outs = new PrintStream[lanes];
+    byte[] mex;
+    try {
+      mex = readFile(args[1]);
+      for (int l = 0; l < lanes; l++) {
+        inputs[l] = new ByteArrayInputStream(readFile(args[l+2]));
+        outputs[l] = new ByteArrayOutputStream();
+        outs[l] = new PrintStream(outputs[l]);
+      } // for
+    }
+    catch (IOException e) {
+      System.out.println(" "+e);
+      return;
+    }
+    RunCost cost = RunCost.begin();
+    LockstepBatch batch = new LockstepBatch(inputs, outs);
+    if (batch.load(mex))
+      batch.run();
+    long millis = System.currentTimeMillis() - start,
+         instructions = 0,
+         outputBytes = 0;
+    for (int l = 0; l < lanes; l++) {
+      outs[l].flush();
+      instructions += batch.instructionCount[l];
+      outputBytes += outputs[l].size();
+    } // for
+    cost.end(instructions, outputBytes);
+    for (int l = 0; l < lanes; l++) {
+      System.out.write(outputs[l].toByteArray(), 0, outputs[l].size());
+      System.out.println(batch.trailer(l, millis) + " "
+                         + cost.share(batch.instructionCount[l], outputs[l].size()));
+    } // for
+    System.out.println("#MARIE BATCH " + lanes + " " + instructions + " " + cost);
+  } // main()
+
+
+  static byte[] readFile(String name) throws IOException {
+    InputStream in = new FileInputStream(name);
+    try {
+      return in.readAllBytes();
+    }
+    finally {
+      in.close();
+    }
+  } // readFile()
+} // LockstepBatch
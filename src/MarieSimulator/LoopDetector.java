@@ -0,0 +1,119 @@
+// File:        LoopDetector.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.util.*;
+
+class LoopDetector {
+/******************************************************************************************
+*  Between two INPUT instructions a MARIE machine is deterministic:  its next state       *
+*  depends only on the PC, the AC and memory.  (MAR, MBR and IR are always reloaded by    *
+*  the fetch before any instruction reads them.)  So if the machine ever comes back to a  *
+*  state it was in since the last INPUT, it will go round the same loop forever.  This    *
+*  class proves that and lets the judge stop the run at once instead of waiting out the   *
+*  time limit.                                                                            *
+*                                                                                         *
+*  Repeats are found with Brent's cycle-finding method:  the state is compared with a     *
+*  checkpoint that is moved to the current state after 1, 2, 4, 8, ... steps, so any      *
+*  loop is caught within a small multiple of its length.  Memory is compared cheaply      *
+*  through a running hash that writeMemory() keeps up to date (a sum of one mixed value   *
+*  per word).  When the PC, AC and hash all match we make sure by checking every word     *
+*  written since the checkpoint against the value it had then; the first write of each    *
+*  address is logged for this.  A hash collision therefore can't cause a false verdict.   *
+******************************************************************************************/
+  static final int MEMORY_SIZE = MarieSim.MAX_MARIE_ADDR + 1;
+
+  long   memoryHash = 0;                     // Hash of the whole of memory.
+  boolean haveCheckpoint = false;
+  int         checkPC,                       // The checkpoint state.
+              checkAC;
+  long      checkHash;
+  long          power = 1,                   // Steps until the checkpoint moves on, and
+                steps = 0;                   // steps taken since it last moved.
+  int[]  writtenEpoch = new int[MEMORY_SIZE];// Epoch in which each address was last logged.
+  int           epoch = 1;                   // Changes at every checkpoint.
+  int[]  changedAddrs = new int[MEMORY_SIZE];// Addresses written since the checkpoint
+  short[]  changedOld = new short[MEMORY_SIZE];  // and their values at the checkpoint.
+  int    changedCount = 0;
+
+  static long mix(int addr, int value) {
+/******************************************************************************************
+*  Scrambles an (address, word) pair into 64 bits (the finalizer of SplitMix64).          *
+******************************************************************************************/
+    long z = ((long) addr << 16) ^ (value & 0xFFFF);
+    z = (z + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  } // mix()
+
+
+  void reset(short[] memory) {
+/******************************************************************************************
+*  Hashes all of memory from scratch and forgets the checkpoint.  Called when a run       *
+*  starts.                                                                                *
+******************************************************************************************/
+    memoryHash = 0;
+    for (int addr = 0; addr < MEMORY_SIZE; addr++)
+      memoryHash += mix(addr, memory[addr]);
+    inputTaken();
+  } // reset()
+
+
+  void inputTaken() {
+/******************************************************************************************
+*  An INPUT makes the future depend on something outside the machine, so states seen      *
+*  before it prove nothing.                                                               *
+******************************************************************************************/
+    haveCheckpoint = false;
+  } // inputTaken()
+
+
+  void memoryWritten(int addr, int oldValue, int newValue) {
+/******************************************************************************************
+*  Keeps the hash current and logs the first write to each address after a checkpoint.    *
+******************************************************************************************/
+    memoryHash += mix(addr, newValue) - mix(addr, oldValue);
+    if (haveCheckpoint && (writtenEpoch[addr] != epoch)) {
+      writtenEpoch[addr] = epoch;
+      changedAddrs[changedCount] = addr;
+      changedOld[changedCount++] = (short) oldValue;
+    }
+  } // memoryWritten()
+
+
+  boolean looping(int pc, int ac, short[] memory) {
+/******************************************************************************************
+*  Called after each instruction with the new PC and AC.  Returns true if the machine is  *
+*  provably in an infinite loop.                                                          *
+******************************************************************************************/
+    if (haveCheckpoint) {
+      if ((pc == checkPC) && (ac == checkAC) && (memoryHash == checkHash)
+           && unchangedSinceCheckpoint(memory))
+        return true;
+      if (++steps < power)
+        return false;
+      power <<= 1;
+    }
+    else
+      power = 1;
+    checkPC = pc;                            // Move the checkpoint here.
+    checkAC = ac;
+    checkHash = memoryHash;
+    steps = 0;
+    changedCount = 0;
+    if (++epoch == Integer.MAX_VALUE) {      // Don't let a wrapped epoch match a stale
+      Arrays.fill(writtenEpoch, 0);          // log entry.
+      epoch = 1;
+    }
+    haveCheckpoint = true;
+    return false;
+  } // looping()
+
+
+  boolean unchangedSinceCheckpoint(short[] memory) {
+    for (int i = 0; i < changedCount; i++)
+      if (memory[changedAddrs[i]] != changedOld[i])
+        return false;
+    return true;
+  } // unchangedSinceCheckpoint()
+} // LoopDetector
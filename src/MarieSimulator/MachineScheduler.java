@@ -0,0 +1,155 @@
+// File:        MachineScheduler.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.util.concurrent.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+public class MachineScheduler {
+/******************************************************************************************
+*  Runs many machines on a fixed pool of worker threads by time slicing, instead of       *
+*  giving each machine a thread of its own for the whole of its run.  A machine runs for  *
+*  a quantum of instructions (MarieSim.runQuantum()) and then goes to the back of the     *
+*  pool's queue, so the workers take turns round the machines:  a long run can't hold a   *
+*  worker while short ones wait, and every machine gets a quantum in every round.  This   *
+*  is what bounds the latency of a short run when hundreds are going at once.             *
+*                                                                                         *
+*  A machine whose INPUT comes from an SpscChannel (an interactive problem) and that      *
+*  reaches an INPUT before its value has arrived is parked:  it leaves the queue, and     *
+*  the channel puts it back (SpscChannel.whenReady()) when the value is sent or the       *
+*  channel is closed.  A parked machine holds no thread at all.  Machines reading an      *
+*  IntScanner never park, since their input is there from the start.                      *
+*                                                                                         *
+*  Each machine's Turn measures its RunCost a quantum at a time, so the CPU time and      *
+*  allocation come out right even though the quanta run on different threads.  A          *
+*  machine is stopped as usual, with stop():  it halts at the start of its next quantum.  *
+*  A parked machine has no next quantum until its channel is ready, so whoever stops it   *
+*  should close the channel too, as the timeout of an InteractiveRun does.                *
+*                                                                                         *
+*  Machines running to a breakpoint (MarieSim.runToBreakpoint()) take one instruction at  *
+*  a time with a delay between them, so they share one timer thread, the stepper.         *
+******************************************************************************************/
+  public static final int DEFAULT_QUANTUM = 10000;    // Instructions.
+
+  ThreadPoolExecutor pool;
+  long            quantum;
+  int              active = 0;               // Machines submitted and not yet finished.
+  static ScheduledExecutorService stepper = null;   // Made on first use.
+
+  public MachineScheduler(int workers, long quantum) {
+    this.quantum = quantum;
+    pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                                  new LinkedBlockingQueue(), new ThreadFactory() {
+      int count = 0;
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "MARIE scheduler " + count++);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  } // MachineScheduler()
+
+
+  class Turn implements Runnable {
+/******************************************************************************************
+*  A machine taking its turns:  one quantum per run().                                    *
+******************************************************************************************/
+    MarieSim   machine;
+    RunCost       cost;                      // Or null.
+    Runnable  whenDone;                      // Called on a worker once the machine stops.
+    boolean    started = false;
+
+    Turn(MarieSim machine, RunCost cost, Runnable whenDone) {
+      this.machine = machine;
+      this.cost = cost;
+      this.whenDone = whenDone;
+    } // Turn()
+
+    public void run() {
+      if (cost != null)
+        cost.resume();
+      if (!started) {
+        started = true;
+        machine.beginRun();
+      }
+      if (machine.machineState == MarieSim.MARIE_BLOCKED_ON_INPUT)
+        machine.machineState = MarieSim.MARIE_RUNNING;  // Back from being parked.
+      boolean running = machine.runQuantum(quantum);
+      if (cost != null)
+        cost.pause();
+      if (running)
+        pool.execute(this);                  // To the back of the queue.
+      else if (machine.machineState == MarieSim.MARIE_BLOCKED_ON_INPUT) {
+        final Turn turn = this;
+        machine.inputChannel.whenReady(new Runnable() {
+          public void run() { pool.execute(turn); }
+        });
+      }
+      else {
+        machine.endRun();
+        try {
+          whenDone.run();
+        }
+        finally {
+          finished();
+        }
+      }
+    } // run()
+  } // Turn
+
+
+  public void submit(MarieSim machine, RunCost cost, Runnable whenDone) {
+/******************************************************************************************
+*  Runs machine, which must have a program loaded and be RUNNING, to the end, and then    *
+*  calls whenDone.  The call returns at once.  cost, if not null, is resumed and paused   *
+*  around each quantum:  the caller ends it, in whenDone, once the run is over.           *
+******************************************************************************************/
+    if (machine.inputChannel != null)
+      machine.parkOnInput = true;
+    synchronized (this) {
+      active++;
+    }
+    pool.execute(new Turn(machine, cost, whenDone));
+  } // submit()
+
+
+  synchronized void finished() {
+    active--;
+    if (active == 0)
+      notifyAll();
+  } // finished()
+
+
+  public synchronized boolean awaitIdle(long millis) throws InterruptedException {
+/******************************************************************************************
+*  Waits up to millis for every machine submitted to finish.  Returns false if some       *
+*  haven't.                                                                               *
+******************************************************************************************/
+    long deadline = System.currentTimeMillis() + millis;
+    while (active > 0) {
+      long left = deadline - System.currentTimeMillis();
+      if (left <= 0)
+        return false;
+      wait(left);
+    } // while
+    return true;
+  } // awaitIdle()
+
+
+  static synchronized ScheduledExecutorService stepper() {
+    if (stepper == null)
+      stepper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "MARIE stepper");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    return stepper;
+  } // stepper()
+
+
+  public void shutdown() {
+    pool.shutdown();
+  } // shutdown()
+} // MachineScheduler
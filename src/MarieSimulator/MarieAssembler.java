@@ -0,0 +1,468 @@
+// File:        MarieAssembler.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class MarieAssembler {
+/******************************************************************************************
+*  Assembles MARIE source code (.mas) into the .mex image that MarieSim loads, with its   *
+*  symbol table (.map) and a listing (.lst) beside it.  A source line is                  *
+*                                                                                         *
+*     [label,] mnemonic [operand] [/ comment]                                             *
+*                                                                                         *
+*  where the operand of an instruction is a label or a hexadecimal address, ORG sets the  *
+*  address of the first statement, DEC and HEX define a word of data and END ends the     *
+*  program.  Mnemonics aren't case sensitive;  labels are.  As in the original MARIE      *
+*  assembler there are two passes:  the first gives every statement its address and      *
+*  every label its value, the second fills in the operands.  Each AssembledCodeLine       *
+*  carries the errors found in its statement, which the listing prints under it.  A file  *
+*  with errors gets a listing but no .mex or .map -- and loses any it had, so that an     *
+*  image that no longer matches its source is never run.                                  *
+*                                                                                         *
+*  "MarieSim -assemble <file or directory> [threads]" assembles one file, or every .mas   *
+*  file in a directory tree, on a ForkJoinPool.  A directory becomes a task for each of    *
+*  its subdirectories and .mas files, so idle workers steal whole files from busy ones.   *
+*  The mnemonic table is built once and only ever read, so all workers share it, and      *
+*  every AssembledCodeLine refers to the table's own mnemonic strings.  Each worker       *
+*  thread keeps one Workspace of buffers (source text, image, listing) and reuses it for  *
+*  every file it assembles.  Files with errors are named as they are found;  at the end   *
+*  the totals are printed with the throughput in files per second.                        *
+******************************************************************************************/
+  static final int ORG = -1,                   // Directives' codes in the mnemonic table.
+                   END = -2,
+                   DEC = -3,
+                   HEX = -4;
+
+  static class Mnemonic {
+    String      name;                          // As it appears in AssembledCodeLines.
+    int         code;                          // Opcode, or a directive above.
+    boolean  operand;                          // Takes an operand.
+
+    Mnemonic(String name, int code, boolean operand) {
+      this.name = name;
+      this.code = code;
+      this.operand = operand;
+    } // Mnemonic()
+  } // Mnemonic
+
+  static final HashMap MNEMONICS = new HashMap();  // Upper-case name -> Mnemonic.
+  static {
+    String[] names = { "JNS", "LOAD", "STORE", "ADD", "SUBT", "INPUT", "OUTPUT", "HALT",
+                       "SKIPCOND", "JUMP", "CLEAR", "ADDI", "JUMPI", "LOADI", "STOREI",
+                       "BANK" };               // F is BANK on an extended machine and
+    for (int i = 0; i < names.length; i++)     // SWAP on a Multiprocessor.
+      define(names[i], i, (i != 5) && (i != 6) && (i != 7) && (i != 10));
+    define("SWAP", 15, true);
+    define("ORG", ORG, true);
+    define("END", END, false);
+    define("DEC", DEC, true);
+    define("HEX", HEX, true);
+  }
+
+  static void define(String name, int code, boolean operand) {
+    MNEMONICS.put(name, new Mnemonic(name, code, operand));
+  } // define()
+
+  ArrayList      lines = new ArrayList();      // AssembledCodeLines, one per source line.
+  HashMap      symbols = new HashMap();        // Label -> Integer address.
+  ArrayList     labels = new ArrayList();      // In the order they were defined.
+  int       errorCount = 0;
+
+  static class Workspace {
+/******************************************************************************************
+*  The buffers one worker thread reuses for every file it assembles.                      *
+******************************************************************************************/
+    char[]                 text = new char[1 << 14];
+    ByteArrayOutputStream image = new ByteArrayOutputStream(1 << 14);
+    StringBuffer         report = new StringBuffer(1 << 14);
+  } // Workspace
+
+  static final ThreadLocal WORKSPACE = new ThreadLocal() {
+    protected Object initialValue() {
+      return new Workspace();
+    }
+  };
+
+
+  void error(AssembledCodeLine line, String msg) {
+    line.errors.add(msg);
+    errorCount++;
+  } // error()
+
+
+  static String hex(int value, int digits) {
+    String s = Integer.toHexString(value).toUpperCase();
+    while (s.length() < digits)
+      s = "0" + s;
+    return s;
+  } // hex()
+
+
+  void assemble(char[] text, int length) {
+/******************************************************************************************
+*  Assembles the length chars of source code in text.                                    *
+******************************************************************************************/
+    for (int start = 0; start < length; ) {
+      int end = start;
+      while ((end < length) && (text[end] != '\n'))
+        end++;
+      int stop = ((end > start) && (text[end-1] == '\r')) ? end - 1 : end;
+      AssembledCodeLine line = new AssembledCodeLine();
+      line.sourceLine = new String(text, start, stop - start);
+      lines.add(line);
+      start = end + 1;
+    } // for
+    firstPass();
+    secondPass();
+  } // assemble()
+
+
+  void firstPass() {
+/******************************************************************************************
+*  Splits each line into its fields and gives each statement its address and each label  *
+*  its value.  A statement keeps its mnemonic and operand token for the second pass;     *
+*  comment lines, directives other than DEC and HEX, and everything after END keep a     *
+*  blank lineNo, which is how MarieSim knows they aren't code.                            *
+******************************************************************************************/
+    int address = 0,
+        statements = 0;
+    boolean ended = false;
+    for (int i = 0; i < lines.size(); i++) {
+      AssembledCodeLine line = (AssembledCodeLine) lines.get(i);
+      String body = line.sourceLine;
+      int slash = body.indexOf('/');
+      if (slash >= 0) {
+        line.comment = body.substring(slash);
+        body = body.substring(0, slash);
+      }
+      if (ended)
+        continue;
+      int comma = body.indexOf(',');
+      if (comma >= 0) {
+        line.stmtLabel = body.substring(0, comma).trim();
+        body = body.substring(comma + 1);
+      }
+      StringTokenizer tokens = new StringTokenizer(body);
+      if (!tokens.hasMoreTokens()) {
+        if (comma >= 0)
+          error(line, "Label without a statement");
+        continue;
+      }
+      String word = tokens.nextToken();
+      Mnemonic mnemonic = (Mnemonic) MNEMONICS.get(word.toUpperCase());
+      if (mnemonic == null) {
+        error(line, "Unknown mnemonic " + word);
+        continue;
+      }
+      line.mnemonic = mnemonic.name;
+      if (tokens.hasMoreTokens())
+        line.operandToken = tokens.nextToken();
+      if (tokens.hasMoreTokens())
+        error(line, "Extra operand " + tokens.nextToken());
+      if ((mnemonic.code == ORG) || (mnemonic.code == END)) {
+        if (comma >= 0)
+          error(line, "Label on " + mnemonic.name);
+        if (mnemonic.code == END)
+          ended = true;
+        else if (statements > 0)
+          error(line, "ORG must come before the first statement");
+        else if ((address = MarieSim.parseHex(line.operandToken, 3)) < 0) {
+          error(line, "Invalid ORG address " + line.operandToken);
+          address = 0;
+        }
+        continue;
+      }
+      if (address > MarieSim.MAX_MARIE_ADDR) {
+        error(line, "Address out of range");
+        continue;
+      }
+      line.lineNo = hex(address, 3);
+      if (comma >= 0)
+        defineLabel(line, address);
+      address++;
+      statements++;
+    } // for
+  } // firstPass()
+
+
+  void defineLabel(AssembledCodeLine line, int address) {
+    String label = line.stmtLabel;
+    boolean valid = (label.length() > 0) && Character.isLetter(label.charAt(0));
+    for (int i = 1; valid && (i < label.length()); i++)
+      valid = Character.isLetterOrDigit(label.charAt(i)) || (label.charAt(i) == '_');
+    if (!valid)
+      error(line, "Invalid label \"" + label + "\"");
+    else if (symbols.containsKey(label))
+      error(line, "Duplicate label " + label);
+    else {
+      symbols.put(label, Integer.valueOf(address));
+      labels.add(label);
+    }
+  } // defineLabel()
+
+
+  void secondPass() {
+/******************************************************************************************
+*  Fills in the machine code of every statement that the first pass found no fault with.  *
+******************************************************************************************/
+    for (int i = 0; i < lines.size(); i++) {
+      AssembledCodeLine line = (AssembledCodeLine) lines.get(i);
+      if ((line.lineNo.charAt(0) == ' ') || !line.errors.isEmpty())
+        continue;
+      Mnemonic mnemonic = (Mnemonic) MNEMONICS.get(line.mnemonic);
+      String token = line.operandToken.trim();
+      int word = 0;
+      if (mnemonic.operand && (token.length() == 0)) {
+        error(line, mnemonic.name + " needs an operand");
+        continue;
+      }
+      if (!mnemonic.operand && (token.length() > 0)) {
+        error(line, mnemonic.name + " takes no operand");
+        continue;
+      }
+      if (mnemonic.code == DEC) {
+        try {
+          word = Integer.parseInt(token);
+        }
+        catch (NumberFormatException e) {
+          word = Integer.MIN_VALUE;
+        }
+        if ((word < Short.MIN_VALUE) || (word > Short.MAX_VALUE)) {
+          error(line, "Invalid decimal value " + token);
+          continue;
+        }
+      }
+      else if (mnemonic.code == HEX) {
+        if ((word = MarieSim.parseHex(token, 4)) < 0) {
+          error(line, "Invalid hexadecimal value " + token);
+          continue;
+        }
+      }
+      else {
+        int operand = 0;
+        if (mnemonic.operand) {
+          Integer address = (Integer) symbols.get(token);
+          operand = (address != null) ? address.intValue() : MarieSim.parseHex(token, 8);
+          if ((operand < 0) || (operand > MarieSim.MAX_MARIE_ADDR)) {
+            error(line, ((address == null) && !Character.isDigit(token.charAt(0)))
+                          ? "Undefined symbol " + token : "Address out of range " + token);
+            continue;
+          }
+        }
+        word = (mnemonic.code << 12) | operand;
+      }
+      word &= 0xFFFF;
+      line.hexCode = hex(word >> 12, 1);
+      line.operand = hex(word & 0x0FFF, 3);
+    } // for
+  } // secondPass()
+
+
+  void writeImage(OutputStream out) throws IOException {
+/******************************************************************************************
+*  Writes the .mex image:  the AssembledCodeLines as an object stream.                    *
+******************************************************************************************/
+    ObjectOutputStream objOut = new ObjectOutputStream(out);
+    for (int i = 0; i < lines.size(); i++)
+      objOut.writeObject(lines.get(i));
+    objOut.flush();
+  } // writeImage()
+
+
+  void writeMap(StringBuffer sb) {
+/******************************************************************************************
+*  Appends the symbol table, in the form SymbolMap reads.                                 *
+******************************************************************************************/
+    sb.append(" Symbol Table\n");
+    Object[] sorted = labels.toArray();
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      String label = (String) sorted[i];
+      sb.append(' ').append(label);
+      for (int pad = label.length(); pad < 24; pad++)
+        sb.append(' ');
+      sb.append("| ").append(hex(((Integer) symbols.get(label)).intValue(), 3)).append('\n');
+    } // for
+  } // writeMap()
+
+
+  void writeListing(StringBuffer sb) {
+/******************************************************************************************
+*  Appends the listing:  each line's address and machine code, its source, and then its   *
+*  errors.                                                                                *
+******************************************************************************************/
+    for (int i = 0; i < lines.size(); i++) {
+      AssembledCodeLine line = (AssembledCodeLine) lines.get(i);
+      String code = (line.hexCode + line.operand).trim();
+      sb.append(line.lineNo.charAt(0) == ' ' ? "   " : line.lineNo).append("  ")
+        .append((code.length() == 4) ? code : "    ").append("  ")
+        .append(line.sourceLine).append('\n');
+      for (int j = 0; j < line.errors.size(); j++)
+        sb.append("          **** ").append(line.errors.get(j)).append('\n');
+    } // for
+    sb.append('\n').append(errorCount).append(errorCount == 1 ? " error" : " errors")
+      .append(" found.  Assembly ")
+      .append(errorCount == 0 ? "successful.\n" : "unsuccessful.\n");
+  } // writeListing()
+
+
+  static int assembleFile(File source, Workspace workspace) throws IOException {
+/******************************************************************************************
+*  Assembles source into the .lst, .mex and .map files beside it, using workspace's       *
+*  buffers, and returns the number of errors found.                                       *
+******************************************************************************************/
+    Reader in = new InputStreamReader(new FileInputStream(source), "ISO-8859-1");
+    int length = 0;
+    try {
+      for (int n; (n = in.read(workspace.text, length, workspace.text.length - length)) > 0; ) {
+        length += n;
+        if (length == workspace.text.length)
+          workspace.text = Arrays.copyOf(workspace.text, 2 * length);
+      } // for
+    }
+    finally {
+      in.close();
+    }
+    MarieAssembler assembler = new MarieAssembler();
+    assembler.assemble(workspace.text, length);
+    String name = source.getPath();
+    if (name.endsWith(MarieSim.SRC_TYPE))
+      name = name.substring(0, name.length() - MarieSim.SRC_TYPE.length());
+    workspace.report.setLength(0);
+    assembler.writeListing(workspace.report);
+    writeText(new File(name + ".lst"), workspace.report);
+    File mexFile = new File(name + MarieSim.MEX_TYPE),
+         mapFile = new File(name + MarieSim.MAP_TYPE);
+    if (assembler.errorCount > 0) {
+      mexFile.delete();
+      mapFile.delete();
+      return assembler.errorCount;
+    }
+    workspace.image.reset();
+    assembler.writeImage(workspace.image);
+    OutputStream out = new FileOutputStream(mexFile);
+    try {
+      workspace.image.writeTo(out);
+    }
+    finally {
+      out.close();
+    }
+    workspace.report.setLength(0);
+    assembler.writeMap(workspace.report);
+    writeText(mapFile, workspace.report);
+    return 0;
+  } // assembleFile()
+
+
+  static void writeText(File file, StringBuffer sb) throws IOException {
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+    try {
+      out.append(sb);
+    }
+    finally {
+      out.close();
+    }
+  } // writeText()
+
+
+  static class Totals {
+    AtomicInteger      files = new AtomicInteger(),   // Assembled, with or without errors.
+                      failed = new AtomicInteger(),   // With errors.
+                  unreadable = new AtomicInteger();
+  } // Totals
+
+
+  static class Bulk extends RecursiveAction {
+/******************************************************************************************
+*  Assembles a file, or every .mas file in a directory tree.                              *
+******************************************************************************************/
+    private static final long serialVersionUID = 1L;   // RecursiveAction is Serializable.
+    File      file;
+    Totals  totals;
+
+    Bulk(File file, Totals totals) {
+      this.file = file;
+      this.totals = totals;
+    } // Bulk()
+
+    protected void compute() {
+      if (file.isDirectory()) {
+        File[] children = file.listFiles();
+        if (children == null)
+          return;
+        ArrayList tasks = new ArrayList();
+        for (int i = 0; i < children.length; i++)
+          if (children[i].isDirectory() || children[i].getName().endsWith(MarieSim.SRC_TYPE))
+            tasks.add(new Bulk(children[i], totals));
+        invokeAll(tasks);
+        return;
+      }
+      try {
+        int errors = assembleFile(file, (Workspace) WORKSPACE.get());
+        totals.files.incrementAndGet();
+        if (errors > 0) {
+          totals.failed.incrementAndGet();
+          report(" " + file + ": " + errors + ((errors == 1) ? " error." : " errors."));
+        }
+      }
+      catch (IOException e) {
+        totals.unreadable.incrementAndGet();
+        report(" " + file + ": " + e);
+      }
+    } // compute()
+
+    static void report(String msg) {
+      synchronized (System.out) {
+        System.out.println(msg);
+      }
+    } // report()
+  } // Bulk
+
+
+  public static void main(String args[]) {
+/******************************************************************************************
+*  Entry point for "MarieSim -assemble <file or directory> [threads]".  Threads defaults  *
+*  to the number of processors.                                                           *
+******************************************************************************************/
+    if (args.length < 2) {
+      System.out.println(" Usage: MarieSim -assemble <file" + MarieSim.SRC_TYPE
+                         + " or directory> [threads]");
+      return;
+    }
+    File root = new File(args[1]);
+    if (!root.exists()) {
+      System.out.println(" File " + args[1] + " not found.");
+      return;
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (args.length > 2) {
+      try {
+        threads = Integer.parseInt(args[2]);
+      }
+      catch (NumberFormatException e) {
+        threads = 0;
+      }
+      if (threads < 1) {
+        System.out.println(" Bad thread count " + args[2]);
+        return;
+      }
+    }
+    Totals totals = new Totals();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long start = System.nanoTime();
+    pool.invoke(new Bulk(root, totals));
+    double seconds = (System.nanoTime() - start) / 1e9;
+    pool.shutdown();
+    int files = totals.files.get();
+    System.out.println(" Assembled " + files + " files (" + totals.failed.get()
+                       + " with errors, " + totals.unreadable.get() + " unreadable) in "
+                       + String.format("%.3f", seconds) + " seconds:  "
+                       + String.format("%.0f", files / Math.max(seconds, 1e-9))
+                       + " files/second.");
+  } // main()
+} // MarieAssembler
@@ -0,0 +1,336 @@
+// File:        MarieMetrics.java
+// JDK Version: 8
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+public class MarieMetrics implements MarieMetricsMBean {
+/******************************************************************************************
+*  Process-wide counters for every MarieSim in the JVM: instructions executed, runs by    *
+*  final machine state, INPUT and OUTPUT counts, program load times and run times, how    *
+*  often each Superinstructions form fired, VerdictCache hits, misses and evictions, and  *
+*  how long JudgeServer jobs waited in its queue, and the host CPU time and heap          *
+*  allocation of the runs it measured (see RunCost).                                      *
+*                                                                                         *
+*  The run loop never touches these counters.  Each machine counts into its own plain     *
+*  fields (one machine is only ever run by one thread at a time) and hands the totals     *
+*  over here once, when a run or a load finishes.  The counters themselves are            *
+*  LongAdders, which stripe updates across cells so that many machines finishing at once  *
+*  on different threads don't contend.                                                    *
+*                                                                                         *
+*  The figures can be read through JMX (registerMBean()) or as a Prometheus-style text    *
+*  exposition (toPrometheus(), writePrometheus()).                                        *
+******************************************************************************************/
+  public static final String MBEAN_NAME = "MarieSimulator:type=Metrics";
+
+  static final int[]    RUN_STATES = { MarieSim.MARIE_HALTED_NORMAL,   // Runs are counted
+                                       MarieSim.MARIE_HALTED_ABNORMAL, // by final state;
+                                       MarieSim.MARIE_HALTED_BY_USER };// anything else is
+  static final String[] STATE_NAMES = { "halted_normal",               // "other".
+                                        "halted_abnormal",
+                                        "halted_by_user",
+                                        "other" };
+  static final double[] RUN_BUCKETS = { 0.001, 0.01, 0.1, 1.0, 10.0, 60.0 };  // Seconds.
+  public static final MarieMetrics global = new MarieMetrics();  // After the constants
+                                                                // it uses.
+
+  LongAdder   instructions = new LongAdder();
+  LongAdder         inputs = new LongAdder();
+  LongAdder        outputs = new LongAdder();
+  LongAdder[]         runs = newAdders(STATE_NAMES.length);
+  LongAdder          loads = new LongAdder();
+  LongAdder   loadFailures = new LongAdder();
+  LongAdder      loadNanos = new LongAdder();
+  LongAdder[]   runBuckets = newAdders(RUN_BUCKETS.length + 1);   // Last one is +Inf.
+  LongAdder       runNanos = new LongAdder();
+  LongAdder[]        fused = newAdders(Superinstructions.FORM_NAMES.length);
+  LongAdder   fusionDeopts = new LongAdder();
+  LongAdder      cacheHits = new LongAdder();
+  LongAdder    cacheMisses = new LongAdder();
+  LongAdder cacheEvictions = new LongAdder();
+  LongAdder queueWaitNanos = new LongAdder();
+  LongAdder     queuedJobs = new LongAdder();
+  LongAdder    runCpuNanos = new LongAdder();
+  LongAdder runAllocations = new LongAdder();   // Bytes.
+
+  static LongAdder[] newAdders(int n) {
+    LongAdder[] adders = new LongAdder[n];
+    for (int i = 0; i < n; i++)
+      adders[i] = new LongAdder();
+    return adders;
+  } // newAdders()
+
+
+  void recordLoad(long nanos, boolean ok) {
+/******************************************************************************************
+*  Called by MarieSim.loadProgram() once a program has been loaded (or failed to load).   *
+******************************************************************************************/
+    loads.increment();
+    loadNanos.add(nanos);
+    if (!ok)
+      loadFailures.increment();
+  } // recordLoad()
+
+
+  void recordRun(int machineState, long instructionCount, long inputCount, long outputCount,
+                 long nanos) {
+/******************************************************************************************
+*  Called by MarieSim.runProgram() when a run ends with the counts for that run.          *
+******************************************************************************************/
+    int state = 0;
+    while ((state < RUN_STATES.length) && (RUN_STATES[state] != machineState))
+      state++;
+    runs[state].increment();
+    instructions.add(instructionCount);
+    inputs.add(inputCount);
+    outputs.add(outputCount);
+    runNanos.add(nanos);
+    double seconds = nanos / 1e9;
+    int bucket = 0;
+    while ((bucket < RUN_BUCKETS.length) && (seconds > RUN_BUCKETS[bucket]))
+      bucket++;
+    runBuckets[bucket].increment();
+  } // recordRun()
+
+
+  void recordWork(long instructionCount, long inputCount, long outputCount) {
+/******************************************************************************************
+*  Called by LockstepBatch for the part of a run it made before handing the machine to    *
+*  runProgram(), which records the rest of the run (and counts it) with recordRun().     *
+******************************************************************************************/
+    instructions.add(instructionCount);
+    inputs.add(inputCount);
+    outputs.add(outputCount);
+  } // recordWork()
+
+
+  void recordFusion(long[] fired, long deopts) {
+/******************************************************************************************
+*  Called at the end of a run made with Superinstructions:  how often each fused form     *
+*  fired, and how many fused sequences were undone because they were overwritten.        *
+******************************************************************************************/
+    for (int i = 0; i < fired.length; i++)
+      fused[i].add(fired[i]);
+    fusionDeopts.add(deopts);
+  } // recordFusion()
+
+
+  void recordCacheLookup(boolean hit) {
+/******************************************************************************************
+*  Called by VerdictCache.get().  A hit is a run that wasn't made, so it isn't counted   *
+*  as one.                                                                                *
+******************************************************************************************/
+    if (hit)
+      cacheHits.increment();
+    else
+      cacheMisses.increment();
+  } // recordCacheLookup()
+
+
+  void recordCacheEviction() {
+    cacheEvictions.increment();
+  } // recordCacheEviction()
+
+
+  void recordQueueWait(long nanos) {
+/******************************************************************************************
+*  Called by JudgeServer when a job it queued gets a worker.                              *
+******************************************************************************************/
+    queuedJobs.increment();
+    queueWaitNanos.add(nanos);
+  } // recordQueueWait()
+
+
+  void recordCost(long cpuNanos, long allocatedBytes) {
+/******************************************************************************************
+*  Called by RunCost.end() with what a run (or a batch) cost the host, -1 where that      *
+*  couldn't be measured.                                                                  *
+******************************************************************************************/
+    if (cpuNanos > 0)
+      runCpuNanos.add(cpuNanos);
+    if (allocatedBytes > 0)
+      runAllocations.add(allocatedBytes);
+  } // recordCost()
+
+
+/* --                                                                                 -- */
+/* --  MarieMetricsMBean attributes and operations.                                   -- */
+/* --                                                                                 -- */
+  public long getInstructionsExecuted()  { return instructions.sum(); }
+  public long getInputs()                { return inputs.sum(); }
+  public long getOutputs()               { return outputs.sum(); }
+  public long getRunsHaltedNormal()      { return runs[0].sum(); }
+  public long getRunsHaltedAbnormal()    { return runs[1].sum(); }
+  public long getRunsHaltedByUser()      { return runs[2].sum(); }
+  public long getLoads()                 { return loads.sum(); }
+  public long getLoadFailures()          { return loadFailures.sum(); }
+
+  public double getMeanLoadMillis() {
+    long n = loads.sum();
+    return (n == 0) ? 0.0 : loadNanos.sum() / 1e6 / n;
+  } // getMeanLoadMillis()
+
+  public long[] getRunTimeHistogram() {          // Non-cumulative counts per bucket.
+    long[] counts = new long[runBuckets.length];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = runBuckets[i].sum();
+    return counts;
+  } // getRunTimeHistogram()
+
+  public long getFusionDeopts()          { return fusionDeopts.sum(); }
+
+  public long[] getFusedCounts() {               // Indexed as Superinstructions.FORM_NAMES.
+    long[] counts = new long[fused.length];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = fused[i].sum();
+    return counts;
+  } // getFusedCounts()
+
+  public long getCacheHits()             { return cacheHits.sum(); }
+  public long getCacheMisses()           { return cacheMisses.sum(); }
+  public long getCacheEvictions()        { return cacheEvictions.sum(); }
+
+  public double getMeanQueueWaitMillis() {
+    long n = queuedJobs.sum();
+    return (n == 0) ? 0.0 : queueWaitNanos.sum() / 1e6 / n;
+  } // getMeanQueueWaitMillis()
+
+  public long getRunCpuNanos()           { return runCpuNanos.sum(); }
+  public long getRunAllocatedBytes()     { return runAllocations.sum(); }
+
+  public String getPrometheusText() { return toPrometheus(); }
+
+  public void reset() {
+    instructions.reset();
+    inputs.reset();
+    outputs.reset();
+    loads.reset();
+    loadFailures.reset();
+    loadNanos.reset();
+    runNanos.reset();
+    fusionDeopts.reset();
+    cacheHits.reset();
+    cacheMisses.reset();
+    cacheEvictions.reset();
+    queueWaitNanos.reset();
+    queuedJobs.reset();
+    runCpuNanos.reset();
+    runAllocations.reset();
+    for (int i = 0; i < fused.length; i++)
+      fused[i].reset();
+    for (int i = 0; i < runs.length; i++)
+      runs[i].reset();
+    for (int i = 0; i < runBuckets.length; i++)
+      runBuckets[i].reset();
+  } // reset()
+
+
+  public String toPrometheus() {
+/******************************************************************************************
+*  Renders all counters in the Prometheus text exposition format.                         *
+******************************************************************************************/
+    StringBuffer sb = new StringBuffer(2048);
+    counter(sb, "marie_instructions_total", "Instructions executed.", instructions.sum());
+    sb.append("# HELP marie_io_total INPUT and OUTPUT instructions executed.\n");
+    sb.append("# TYPE marie_io_total counter\n");
+    sb.append("marie_io_total{direction=\"input\"} ").append(inputs.sum()).append('\n');
+    sb.append("marie_io_total{direction=\"output\"} ").append(outputs.sum()).append('\n');
+    sb.append("# HELP marie_runs_total Runs finished, by final machine state.\n");
+    sb.append("# TYPE marie_runs_total counter\n");
+    for (int i = 0; i < runs.length; i++)
+      sb.append("marie_runs_total{state=\"").append(STATE_NAMES[i]).append("\"} ")
+        .append(runs[i].sum()).append('\n');
+    counter(sb, "marie_load_failures_total", "Programs that failed to load.",
+            loadFailures.sum());
+    sb.append("# HELP marie_load_seconds Time spent in loadProgram().\n");
+    sb.append("# TYPE marie_load_seconds summary\n");
+    sb.append("marie_load_seconds_sum ").append(loadNanos.sum() / 1e9).append('\n');
+    sb.append("marie_load_seconds_count ").append(loads.sum()).append('\n');
+    sb.append("# HELP marie_run_seconds Time spent in runProgram().\n");
+    sb.append("# TYPE marie_run_seconds histogram\n");
+    long cumulative = 0;
+    for (int i = 0; i < runBuckets.length; i++) {
+      cumulative += runBuckets[i].sum();
+      sb.append("marie_run_seconds_bucket{le=\"")
+        .append((i < RUN_BUCKETS.length) ? Double.toString(RUN_BUCKETS[i]) : "+Inf")
+        .append("\"} ").append(cumulative).append('\n');
+    }
+    sb.append("marie_run_seconds_sum ").append(runNanos.sum() / 1e9).append('\n');
+    sb.append("marie_run_seconds_count ").append(cumulative).append('\n');
+    sb.append("# HELP marie_fused_total Fused instruction sequences run, by form.\n");
+    sb.append("# TYPE marie_fused_total counter\n");
+    for (int i = 0; i < fused.length; i++)
+      sb.append("marie_fused_total{form=\"").append(Superinstructions.FORM_NAMES[i])
+        .append("\"} ").append(fused[i].sum()).append('\n');
+    counter(sb, "marie_fusion_deopts_total", "Fused sequences undone by stores into them.",
+            fusionDeopts.sum());
+    sb.append("# HELP marie_verdict_cache_lookups_total VerdictCache lookups, by result.\n");
+    sb.append("# TYPE marie_verdict_cache_lookups_total counter\n");
+    sb.append("marie_verdict_cache_lookups_total{result=\"hit\"} ").append(cacheHits.sum())
+      .append('\n');
+    sb.append("marie_verdict_cache_lookups_total{result=\"miss\"} ").append(cacheMisses.sum())
+      .append('\n');
+    counter(sb, "marie_verdict_cache_evictions_total",
+            "VerdictCache entries deleted to stay within its size.", cacheEvictions.sum());
+    sb.append("# HELP marie_queue_wait_seconds Time JudgeServer jobs waited for a worker.\n");
+    sb.append("# TYPE marie_queue_wait_seconds summary\n");
+    sb.append("marie_queue_wait_seconds_sum ").append(queueWaitNanos.sum() / 1e9).append('\n');
+    sb.append("marie_queue_wait_seconds_count ").append(queuedJobs.sum()).append('\n');
+    sb.append("# HELP marie_run_cpu_seconds_total Host CPU time of measured runs.\n");
+    sb.append("# TYPE marie_run_cpu_seconds_total counter\n");
+    sb.append("marie_run_cpu_seconds_total ").append(runCpuNanos.sum() / 1e9).append('\n');
+    counter(sb, "marie_run_allocated_bytes_total", "Heap allocated by measured runs.",
+            runAllocations.sum());
+    return sb.toString();
+  } // toPrometheus()
+
+
+  static void counter(StringBuffer sb, String name, String help, long value) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(" counter\n");
+    sb.append(name).append(' ').append(value).append('\n');
+  } // counter()
+
+
+  public void writePrometheus(String fileName) throws IOException {
+/******************************************************************************************
+*  Writes the Prometheus text to fileName, by way of a temporary file that is renamed     *
+*  into place so that a scraper never sees a half-written file.                           *
+******************************************************************************************/
+    File target = new File(fileName);
+    File temp = new File(fileName + ".tmp");
+    Writer fileOut = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+    try {
+      fileOut.write(toPrometheus());
+    }
+    finally {
+      fileOut.close();
+    }
+    if (!temp.renameTo(target)) {
+      target.delete();
+      if (!temp.renameTo(target))
+        throw new IOException("Can't rename " + temp + " to " + target);
+    }
+  } // writePrometheus()
+
+
+  public static void registerMBean() {
+/******************************************************************************************
+*  Publishes the global counters on the platform MBean server.  This is left to           *
+*  long-running hosts such as JudgeServer: loading JMX would add to the startup time of   *
+*  a one-shot console run.                                                                *
+******************************************************************************************/
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!server.isRegistered(name))
+        server.registerMBean(global, name);
+    }
+    catch (JMException e) {
+      System.out.println(" "+e);
+    }
+  } // registerMBean()
+} // MarieMetrics
@@ -0,0 +1,30 @@
+// File:        MarieMetricsMBean.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+
+public interface MarieMetricsMBean {
+/******************************************************************************************
+*  JMX management interface of MarieMetrics.                                              *
+******************************************************************************************/
+  long     getInstructionsExecuted();
+  long     getInputs();
+  long     getOutputs();
+  long     getRunsHaltedNormal();
+  long     getRunsHaltedAbnormal();
+  long     getRunsHaltedByUser();
+  long     getLoads();
+  long     getLoadFailures();
+  double   getMeanLoadMillis();
+  long[]   getRunTimeHistogram();
+  long[]   getFusedCounts();
+  long     getFusionDeopts();
+  long     getCacheHits();
+  long     getCacheMisses();
+  long     getCacheEvictions();
+  double   getMeanQueueWaitMillis();
+  long     getRunCpuNanos();
+  long     getRunAllocatedBytes();
+  String   getPrometheusText();
+  void     reset();
+} // MarieMetricsMBean
@@ -1,12 +1,13 @@
 // File:        MarieSim.java
 // Author:      Julie Lobur
-// JDK Version: 1.3.1, 5.0
+// JDK Version: 1.3.1, 5.0, 9
 // Date:        November 7, 2001, June 29, 2008, June 23, 2010
 // Notice:      (c) 2003, 2008 Julia M. Lobur 
 //              This code may be freely used for noncommercial purposes.
 package MarieSimulator;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 @SuppressWarnings("unchecked") // This line is needed because we are not using generics.
 
 public class MarieSim {
@@ -31,8 +32,9 @@ public class MarieSim {
 /* --                                                                                 -- */
 /* --  Class fields and attributes.                                                   -- */
 /* --                                                                                 -- */
-  public static String         mexFile = null;     // Name of machine code file.
-  public static String         mexPath = null;
+  String                       mexFile = null;     // Name of machine code file.
+  String                       mexPath = null;     // (Per machine so that several can run
+                                                   // side by side in one JVM.)
   public static final String  MEX_TYPE = ".mex";  // File extension of executable code.
   public static final String  MAP_TYPE = ".map";  // File extension of symbol table.
   public static final String  SRC_TYPE = ".mas";  // File extension for source code.
@@ -53,7 +55,10 @@ public class MarieSim {
                                          "IO Exception on input file",         //  5
                                          "Invalid register",                   //  6
                                          "Illegal numeric value in register",  //  7
-                                         "Maximum program statements reached"  //  8
+                                         "Maximum program statements reached", //  8
+                                         "Instruction limit exceeded",         //  9
+                                         "Provable infinite loop",             // 10
+                                         "Cycle limit exceeded"                // 11
                                          };
 /* --                                                                                 -- */
 /* --  boolean array operandReqd indicates whether an instruction with hexcode        -- */
@@ -74,7 +79,34 @@ public class MarieSim {
                                                 true,   // ADDI
                                                 true,   // JUMPI
                                                 true,   // LOADI
-                                                true }; // STOREI
+                                                true,   // STOREI
+                                                false };// BANK or SWAP (see opcodeF())
+/* --                                                                                 -- */
+/* --  int array CYCLES gives the cost of each instruction in guest clock cycles, one  -- */
+/* --  per register transfer of its RTL:  3 to fetch it (MAR <- PC, IR <- M[MAR],     -- */
+/* --  PC <- PC + 1), plus those of its execution, e.g. LOAD X is MAR <- X,           -- */
+/* --  MBR <- M[MAR], AC <- MBR.  The cycle count of a run depends only on the        -- */
+/* --  program and its input, so a cycle limit gives the same verdict on any host.    -- */
+/* --                                                                                 -- */
+  public static final int[] CYCLES = { 3 + 7,   // JUMPNSTORE  MBR<-PC, MAR<-X, M[MAR]<-MBR,
+                                                //   MBR<-X, AC<-1, AC<-AC+MBR, PC<-AC
+                                       3 + 3,   // LOAD     MAR<-X, MBR<-M[MAR], AC<-MBR
+                                       3 + 3,   // STORE    MAR<-X, MBR<-AC, M[MAR]<-MBR
+                                       3 + 3,   // ADD      MAR<-X, MBR<-M[MAR], AC<-AC+MBR
+                                       3 + 3,   // SUBT     MAR<-X, MBR<-M[MAR], AC<-AC-MBR
+                                       3 + 1,   // INPUT    AC<-InREG
+                                       3 + 1,   // OUTPUT   OutREG<-AC
+                                       3 + 1,   // HALT
+                                       3 + 1,   // SKIPCOND PC<-PC+1, or nothing
+                                       3 + 1,   // JUMP     PC<-IR[11-0]
+                                       3 + 1,   // CLEAR    AC<-0
+                                       3 + 5,   // ADDI     MAR<-X, MBR<-M[MAR], then as ADD
+                                       3 + 3,   // JUMPI    MAR<-X, MBR<-M[MAR], PC<-MBR
+                                       3 + 5,   // LOADI    MAR<-X, MBR<-M[MAR], then as LOAD
+                                       3 + 5,   // STOREI   MAR<-X, MBR<-M[MAR], then as STORE
+                                       3 + 4 }; // BANK or SWAP:  MAR<-X, MBR<-M[MAR],
+                                                //   M[MAR]<-AC, AC<-MBR (BANK costs the same)
+  public static final int MAX_CYCLES = 3 + 7;  // Of any one instruction.
 /* --                                                                                 -- */
 /* --  System constants.                                                              -- */
 /* --                                                                                 -- */
@@ -107,6 +139,16 @@ public class MarieSim {
   static final int PROGRAM_TABLE_ROW_HEIGHT = 19; // Give us a bit larger row for 
                                                   // the program instructions.
 
+  static final String MEX_FILTER                 // Classes that may appear in a .mex
+          = "maxdepth=4;MarieSimulator.AssembledCodeLine;java.util.ArrayList;"  // file.
+            + "java.lang.String;java.lang.Object;!*";   // (Object is the element type of
+  static ObjectInputFilter mexFilter = null;       // the ArrayList of errors.)  Compiled
+                                                   // on first use:  setting up the filter
+                                                   // machinery slows down startup.
+
+  static final int PC_HISTORY = 64;      // Fetch addresses kept for core dumps.  Must be
+                                         // a power of 2.
+
   public static final int MINIMUM_DELAY = 10;
   public static final String[] base = {"Hex", "Dec", "ASCII"};
   public static final String[] outputControl = {"Control", "Use Linefeeds", "No Linefeeds", 
@@ -114,7 +156,10 @@ public class MarieSim {
 /* --                                                                                 -- */
 /* --  Instance variables.                                                            -- */
 /* --                                                                                 -- */
-  Scanner scanner = new Scanner(System.in);
+  IntScanner scanner;                  // Source of values for the INPUT instruction.
+  PrintStream  out;                    // Destination of OUTPUT values and status messages.
+  SpscChannel inputChannel = null;     // If set (by InteractiveRun), INPUT values come
+  SpscChannel outputChannel = null;    // from and OUTPUT values go to an Interactor.
   int  instructionCode = 0;            // Machine code of instruction being run.
   int    codeLineCount = 0;            // Number of lines in the program
   boolean     stepping = false;        // Whether executing one instruction at a time.
@@ -122,21 +167,53 @@ public class MarieSim {
   int            delay = 10;           // Delay between instruction executions;
   boolean outputWithLinefeed = true;   // Determines whether characters output will have 
                                        // linefeeds supplied.  User can change this.
-  static  String  statusMessage = null;
-  static  Vector   outputStream = new Vector();  // Holds output so we can reformat.
+  String         statusMessage = null;
+  Vector          outputStream = new Vector();   // Holds output so we can reformat.
   int              machineState = 0xDEAD;        // Machine state.
+  volatile boolean stopRequested = false;        // Set by another thread to stop a run.
+  long         instructionCount = 0;             // Instructions executed since load/restart.
+  long         instructionLimit = 0;             // Halt after this many; 0 means no limit.
+  long               cycleCount = 0;             // Guest clock cycles (see CYCLES) since
+  long               cycleLimit = 0;             // load/restart, and a limit as above.
+  long               inputCount = 0;             // INPUT and OUTPUT instructions executed
+  long              outputCount = 0;             // since load (for MarieMetrics).
+  boolean           dumpOnError = true;          // Write mexFile.dmp on an abnormal halt.
+  boolean           parkOnInput = false;         // Set by a MachineScheduler for a machine
+                                                 // with an inputChannel (see runQuantum()).
+  long            runStartNanos = 0;             // When the run began and the counts then,
+  long     runStartInstructions = 0,             // set by beginRun() for endRun().
+                 runStartInputs = 0,
+                runStartOutputs = 0;
+  LoopDetector     loopDetector = null;          // Set to stop provably endless runs.
+  boolean             fastLoops = false;         // Fast-forward counting loops (set before
+  CountingLoop[]  countingLoops = null;          // loading), indexed by loop head address.
+  boolean                  fuse = false;         // Fuse common sequences (set before
+  Superinstructions      fusion = null;          // loading).
+  UndoLog               undoLog = null;          // Set to allow stepping backwards.
+  Sanitizer           sanitizer = null;          // Set to report overflows and reads of
+                                                 // unwritten words.
+  Coverage             coverage = null;          // Set to record what a run executes.
+  CallProfiler         profiler = null;          // Set to count instructions by routine.
+  PagedMemory    extendedMemory = null;          // Set for an extended machine (see
+  int                      bank = 0;             // PagedMemory) and its bank register.
+  int[]               pcHistory = new int[PC_HISTORY];  // Ring of the last PCs fetched
+  long           pcHistoryCount = 0;                    // and how many were ever fetched.
 
   boolean errorFound = false;   // Non-fatal error flag, e.g. invalid  user input.
   boolean fatalError = false;   // Fatal error flag, e.g., invalid branch address.
   int      errorCode = 0;
 
-  Object[][] programArray;                // Holds instructions to be executed.
+  AssembledCodeLine[] programLines        // Rows of the program monitor table, i.e.,
+          = new AssembledCodeLine[MAX_MARIE_ADDR+1];  // the code lines loaded.
+  boolean[]  breakpoints                  // Breakpoint flag of each row.
+          = new boolean[MAX_MARIE_ADDR+1];
+  int       firstAddress = 0;             // Where the program starts.
   ProgramTableModel    ptm = new ProgramTableModel();  // Program monitor table control.
   int      programFocusRow = 0;           // Current instruction pointer in monitor.
-  Hashtable codeReference                 // codeReference provides correspondence
-            = new Hashtable(16, (float) 0.75);   // between monitor table and 
-                                          // instruction addresses.
-                                          // Initial capacity 16, load factor 0.75.
+  int[] codeReference                     // codeReference provides correspondence
+            = new int[MAX_MARIE_ADDR+1];  // between instruction addresses and monitor
+                                          // table rows (-1 where there is no statement).
+  SymbolMap symbols = new SymbolMap();    // Labels of the program loaded.
 
   Register         regAC = new Register(AC);        // its label, and the combo box used to
                                                     // one for each register except the
@@ -152,7 +229,8 @@ public class MarieSim {
 
   Register           regOUTPUT = new Register(OUTPUT);
 
-  Object[][] memoryArray = new Object[256][17]; // Memory contents.
+  short[]         memory = new short[MAX_MARIE_ADDR+1];  // Memory contents.
+  MemoryTableModel   mtm = new MemoryTableModel();      // Memory display table control.
   int    memoryFocusCell = 0;                   // Current memory location in table.
      
                                              //    message window. 
@@ -170,7 +248,15 @@ public class MarieSim {
       public String getColumnName(int col) {
         return headers[col]; }
       public Object getValueAt(int row, int col) {
-        return programArray[row][col];
+        AssembledCodeLine line = programLines[row];   // Cells are rendered on demand.
+        switch (col) {
+          case 0: return Boolean.valueOf(breakpoints[row]);
+          case 1: return "  "+line.lineNo;
+          case 2: return " "+line.stmtLabel;
+          case 3: return line.mnemonic;
+          case 4: return line.operandToken;
+         default: return " "+line.hexCode+line.operand;
+        } // switch
       }
   
       public boolean isCellEditable(int rowIndex, int columnIndex) {
@@ -180,13 +266,79 @@ public class MarieSim {
           return false;
       }
       public void setValueAt(Object value, int row, int col) {
-        programArray[row][col] = value;       // Only one column is editable,
+        if (col == 0)                         // Only one column is editable,
+          breakpoints[row] = ((Boolean) value).booleanValue();
       }
       public Class getColumnClass(int c) {    // This method is used to provide 
         return getValueAt(0, c).getClass();   // the default cell editor.  I.e.,
       }                                       // Booleans display as checkboxes.
     } // ProgramTableModel
 
+  class MemoryTableModel {
+/******************************************************************************************
+*  This class provides the framework for the memory display table:  an address column     *
+*  and 16 words to a row.  Nothing is kept in String form;  cells are rendered from       *
+*  memory when they are asked for, so a run that is never displayed pays nothing for the  *
+*  table.  Instead, writeMemory() marks the row it writes in a dirty set (one bit per     *
+*  row), and a display (or anything else keeping a copy) calls takeDirtyRows() to find    *
+*  the rows to redraw since it last looked.  A reset marks every row.                     *
+******************************************************************************************/
+      static final int ROWS = (MAX_MARIE_ADDR + 1) / 16;
+      long[] dirtyRows = new long[ROWS / 64];        // Bit (row % 64) of word (row / 64).
+
+      public int getColumnCount() { return 17; }
+      public int getRowCount() { return ROWS; }
+      public String getColumnName(int col) {
+        if (col == 0)
+          return " ";
+        return "+"+Integer.toHexString(col - 1).toUpperCase();
+      }
+      public Object getValueAt(int row, int col) {
+        if (col == 0)
+          return "  "+to3CharHexStr(row * 16);
+        return " "+to4CharHexStr(memoryValue(row * 16 + col - 1));
+      }
+      public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return false;
+      }
+      public Class getColumnClass(int c) {
+        return String.class;
+      }
+
+      void written(int addr) {                // addr / 1024 is the word of row addr / 16,
+        dirtyRows[addr >> 10] |= 1L << (addr >> 4);   // and a long shift is taken mod 64.
+      }
+
+      void allDirty() {
+        Arrays.fill(dirtyRows, -1L);
+      }
+
+      public boolean isDirty(int row) {
+        return (dirtyRows[row >> 6] & (1L << row)) != 0;
+      }
+
+      public int[] takeDirtyRows() {
+/******************************************************************************************
+*  Returns the rows written since the last call (or since the last reset), in ascending   *
+*  order, and clears the dirty set.                                                       *
+******************************************************************************************/
+        int count = 0;
+        for (int i = 0; i < dirtyRows.length; i++)
+          count += Long.bitCount(dirtyRows[i]);
+        int[] rows = new int[count];
+        int n = 0;
+        for (int i = 0; i < dirtyRows.length; i++) {
+          long bits = dirtyRows[i];
+          while (bits != 0) {
+            rows[n++] = i * 64 + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+          }
+          dirtyRows[i] = 0;
+        }
+        return rows;
+      } // takeDirtyRows()
+    } // MemoryTableModel
+
   class Register {
 /******************************************************************************************
 *   MARIE registers have two principal characteristics:  their value and their rendering  *
@@ -208,7 +360,6 @@ public class MarieSim {
     int    designation; // Register number.
     short  value;       // value stored.
     int    mode;        // HEX, DEC, or ASCII.
-    String rendering;   // String of value in mode: e.g., value = 12 = "C".
 
     public Register(int whichOne) {      // Constructor.
       if ((whichOne >= AC) && (whichOne <= OUTPUT))     // Make sure we have a valid 
@@ -232,7 +383,6 @@ public class MarieSim {
         mode = m;
       else
         mode = HEX;
-      setValue(value);
     } // setMode()
 
     public void setValue(int v) {
@@ -240,7 +390,8 @@ public class MarieSim {
 *   Sets the numeric value stored in the Register to the integer argument value.  The     *
 *   argument is always a base 10 integer.  Hence, if the register is in hex mode and a    *
 *   decimal 15 is passed in the argument, decimal 15 is stored in the value field and     *
-*   "000F" is stored in the rendering field.                                              *
+*   toString() renders it as "000F".  Nothing is rendered here, since most values are     *
+*   never displayed.                                                                      *
 ******************************************************************************************/
       value = (short) v;
       if ((this.designation == MAR)            // Wrap memory addresses that are
@@ -248,24 +399,6 @@ public class MarieSim {
          if ((value < 0) || (value > MAX_MARIE_ADDR))
            value = (short) (v & 0x00000FFF);
       }
-      switch (mode) {
-        case   HEX: if ((designation == MAR) 
-                             ||(designation == PC))  
-                      rendering = "  "+to3CharHexStr(value);
-                    else
-                      rendering = " "+to4CharHexStr(value);
-                    break;
-        case ASCII: if (v == 0)
-                      rendering = null;
-                    else
-                      rendering = "    " + (char) (v % 128);
-                    break;
-           default: 
-                    if ((designation != OUTPUT) && (value > 0))
-                      rendering = " "+Integer.toString(value); 
-                    else
-                      rendering = Integer.toString(value); 
-      } // switch
     } // setValue ()
   
     public void setValue(String v) {
@@ -287,7 +420,24 @@ public class MarieSim {
         }
     } // setValue()
 
-    public String toString() { return rendering; }  // Accessor for value in string form.
+    public String toString() {                      // Accessor for value in string form.
+      switch (mode) {                               // E.g., value = 12 = "C".
+        case   HEX: if ((designation == MAR) 
+                             ||(designation == PC))  
+                      return "  "+to3CharHexStr(value);
+                    else
+                      return " "+to4CharHexStr(value);
+        case ASCII: if (value == 0)
+                      return null;
+                    else
+                      return "    " + (char) (value % 128);
+           default: 
+                    if ((designation != OUTPUT) && (value > 0))
+                      return " "+Integer.toString(value); 
+                    else
+                      return Integer.toString(value); 
+      } // switch
+    } // toString()
 
     public int getValue() {                         // Accessor for value in integer form.
        if ((this.designation == MAR)                // If we have an address-type register,
@@ -304,9 +454,23 @@ public class MarieSim {
 
   public MarieSim() {
 /******************************************************************************************
-*  This is the constructor for the simulator.                                             *
+*  This is the constructor for the simulator.  Console mode reads INPUT values from the   *
+*  standard input and writes OUTPUT values to the standard output.                        *
 ******************************************************************************************/
+    this(System.in, System.out);
+  } // MarieSim()
+
+
+  public MarieSim(InputStream in, PrintStream out) {
+/******************************************************************************************
+*  Constructs a simulator that reads INPUT values from the stream in and writes OUTPUT    *
+*  values and status messages to the stream out.  This lets a host (e.g., JudgeServer)    *
+*  run many isolated machines in one JVM.                                                 *
+******************************************************************************************/
+           scanner = new IntScanner(in);
+           this.out = out;
            stepping = false;
+           Arrays.fill(codeReference, -1);
            clearBreakPoints();
 
 /* --                                                                                 -- */
@@ -462,11 +626,53 @@ public class MarieSim {
 /* ------------------------------------------------------------------------------------- */
 /* -- General output methods.                                                         -- */
 /* ------------------------------------------------------------------------------------- */
+  int memoryValue(int addr) {
+/******************************************************************************************
+*  Returns the word stored at memory address addr as a signed 16-bit value.  On an        *
+*  extended machine addr may be anywhere in its address space.                           *
+******************************************************************************************/
+    if (addr > MAX_MARIE_ADDR)
+      return extendedMemory.read(addr);
+    return memory[addr];
+  } // memoryValue()
+
+
+  void writeMemory(int addr, int value) {
+/******************************************************************************************
+*  Stores value (truncated to a 16-bit word) at memory address addr.  Every change to     *
+*  memory goes through here so that the memory table stays in step with memory.          *
+*                                                                                         *
+*  Words above 4K (on an extended machine) are outside the memory table and the code,     *
+*  so only the UndoLog and the LoopDetector hear of them.  The LoopDetector doesn't       *
+*  track them:  as after an INPUT, it just doesn't compare states across the write.       *
+******************************************************************************************/
+    if (addr > MAX_MARIE_ADDR) {
+      int oldValue = extendedMemory.write(addr, value);
+      if ((loopDetector != null) && (oldValue != (short) value))
+        loopDetector.inputTaken();
+      if (undoLog != null)
+        undoLog.written(addr, oldValue);
+      return;
+    }
+    int oldValue = memory[addr];
+    memory[addr] = (short) value;
+    mtm.written(addr);
+    if (loopDetector != null)
+      loopDetector.memoryWritten(addr, oldValue, memory[addr]);
+    if (fusion != null)
+      fusion.written(addr);
+    if (undoLog != null)
+      undoLog.written(addr, oldValue);
+    if (sanitizer != null)
+      sanitizer.written(addr);
+  } // writeMemory()
+
+
   void setStatusMessage(String msg) {
 /******************************************************************************************
 *  Writes the message, msg, to the standard output                                        *
 ******************************************************************************************/
-   System.out.println(msg);
+   out.println(msg);
   } // setErrorMessage()
 
 
@@ -500,50 +706,91 @@ public class MarieSim {
 
   void loadProgram() {
 /******************************************************************************************
-*  This method does the work of loading an ObjectStream of executable AssembledCodeLines  *
-*  from disk.  This method should be called only by methods that have already established *
-*  a valid filename.  We check to make sure that this filename isn't null before trying   *
-*  to find the file.                                                                      *
-*                                                                                         *
-*  If we don't find the file, or if it's corrupted, the Exception caught is sent to the   *
-*  message area of the simulator.                                                         *
-*                                                                                         *
-*  If we have found a valid file, the first thing we do is clear any remnants from a      *
-*  previously-loaded program.  Then we load the codelines into a Vector from which        *
-*  an enumeration will be used to load the program instruction array (programArray)       *
-*  and the memoryArray.  We load into a Vector prior to loading the data structures       *
-*  so that we can find out how big to make the programArray.  (This is created new        *
-*  for each program loaded.)                                                              *
-*                                                                                         *
-*  Program line numbers are loaded into a HashTable that provides a correspondence        *
-*  between the memory address of the program statement and the location of that           *
-*  statement in the program monitor table.  We retrieve these addresses during the        *
-*  fetch cycle.                                                                           *
-*                                                                                         *
-*  After all of the data structures are loaded, we set the menu options and menu          *
-*  buttons appropriately.  If a symbol table for the loaded program can be found, the     *
-*  menu option for displaying this table is also enabled.  If all loading was successful, *
-*  the machineState will be HALTED_NORMAL.  If there was a fatal error encountered        *
-*  during the load, the machineState will be NO_PROGRAM_LOADED after the marieReset()     *
-*  call is performed.                                                                     *
+*  Opens the executable file named by mexFile and loads it.  This method should be        *
+*  called only by methods that have already established a valid filename.  We check to   *
+*  make sure that this filename isn't null before trying to find the file.                *
 ******************************************************************************************/
-    File               objectFile = null; 
-    ObjectInputStream   objFileIn = null;
-    AssembledCodeLine   aCodeLine = new AssembledCodeLine();
-    Vector             codeVector = new Vector();
+    InputStream fileIn = null;
     errorFound = false;
     if (mexFile == null) {
       setStatusMessage(" No file to load.");
       return;
     }
     try {                                      // Try to open the input.
-      objectFile = new File(mexFile+MEX_TYPE);
-      objFileIn = new ObjectInputStream( new FileInputStream(objectFile) );
+      fileIn = new FileInputStream(new File(mexFile+MEX_TYPE));
     } // try
     catch (FileNotFoundException e) {
       setStatusMessage(" File " + mexFile + MEX_TYPE + " not found.");
       errorFound = true;
+      return;
     } // catch
+    loadProgram(fileIn);
+    if (!errorFound)
+      checkForMap();
+  } // loadProgram()
+
+
+  void loadProgram(InputStream in) {
+/******************************************************************************************
+*  Loads a program from the stream in (see readProgram()) and reports the time taken to   *
+*  MarieMetrics.                                                                          *
+******************************************************************************************/
+    long start = System.nanoTime();
+    readProgram(in);
+    MarieMetrics.global.recordLoad(System.nanoTime() - start, !errorFound);
+  } // loadProgram()
+
+
+  void readProgram(InputStream in) {
+/******************************************************************************************
+*  This method does the work of loading an ObjectStream of executable AssembledCodeLines  *
+*  from the stream in, which is a file on disk or program bytes sent to the JudgeServer.  *
+*                                                                                         *
+*  If the stream is corrupted, the Exception caught is sent to the message area of the    *
+*  simulator.                                                                             *
+*                                                                                         *
+*  The stream is read into memory and parsed by MexReader, which is much quicker to get   *
+*  going than an ObjectInputStream.  Only if MexReader doesn't recognize it is it read    *
+*  with an ObjectInputStream, through MEX_FILTER.                                         *
+*                                                                                         *
+*  If we have a valid stream, the first thing we do is clear any remnants from a          *
+*  previously-loaded program (marieReset()).  Then we make a single pass over the code    *
+*  lines, validating each one and storing it straight into the structures that were      *
+*  allocated with the machine:  the word goes into memory, the line into programLines     *
+*  (the rows of the program monitor table) and its row number into codeReference, the    *
+*  array indexed by address that gives the correspondence between the memory address of  *
+*  the program statement and its row.  We retrieve these rows during the fetch cycle.     *
+*  Statement labels are entered in the symbol map as we go.                               *
+*                                                                                         *
+*  A line is rejected if its address is not hexadecimal or is out of range (e.g., after   *
+*  an ORG beyond the end of memory), if another line already occupies its address, or    *
+*  if its machine code isn't a hexadecimal word.  Because addresses can't repeat, a       *
+*  program can never have more lines than there are words of memory, so we need no       *
+*  separate line limit.                                                                   *
+*                                                                                         *
+*  If all loading was successful, the machineState will be HALTED_NORMAL.  If there was   *
+*  a fatal error encountered during the load, the machineState will be                   *
+*  NO_PROGRAM_LOADED after the marieReset() call is performed.                            *
+******************************************************************************************/
+    ObjectInputStream   objFileIn = null;
+    Iterator               parsed = null;      // Lines MexReader could read, if it could.
+    AssembledCodeLine   aCodeLine = null;
+    errorFound = false;
+    try {                                      // Try to read the input.  If it isn't in
+      byte[] bytes = in.readAllBytes();        // the form MexReader understands, open
+      in.close();                              // it as an object stream from which only
+      ArrayList lines = MexReader.parse(bytes);   // code lines may be read.
+      if (lines != null)
+        parsed = lines.iterator();
+      else {
+        objFileIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        synchronized (MarieSim.class) {
+          if (mexFilter == null)
+            mexFilter = ObjectInputFilter.Config.createFilter(MEX_FILTER);
+        }
+        objFileIn.setObjectInputFilter(mexFilter);
+      }
+    } // try
     catch (IOException e) {
       setStatusMessage(" "+e); 
       errorFound = true;
@@ -555,106 +802,144 @@ public class MarieSim {
     if (errorFound)                            // If we've found any problems,
       return;                                  // return to caller.
     marieReset();                              // Clear the simulator, including
-    if (codeLineCount >=0)                     // any program loaded.         
-      for (int i = 0; i < codeLineCount; i++) {
-        programArray[i][0] = new Boolean(false);
-        programArray[i][1] = "  ";
-        programArray[i][2] = "  ";
-        programArray[i][3] = "  ";
-        programArray[i][4] = "  ";
-        programArray[i][5] = "  "; 
-      }
-    codeLineCount = 0;
+    symbols = new SymbolMap();                 // any program loaded.
+    String problem = null;
     boolean done = false;                      // Begin loading the program...
     while (!done) {
-       if (codeLineCount >= MAX_MARIE_ADDR) {
-         setStatusMessage(" Maximum program statements reached."); 
-         errorFound = true;
-         done = true;
-       } // if
        try {             
-          aCodeLine = (AssembledCodeLine) objFileIn.readObject();
+          if (parsed != null)
+            aCodeLine = parsed.hasNext() ? (AssembledCodeLine) parsed.next() : null;
+          else
+            aCodeLine = (AssembledCodeLine) objFileIn.readObject();
           if (aCodeLine == null)
              done = true;
-          else { 
-            if (aCodeLine.lineNo.charAt(0) != ' ') {
-              codeVector.add(aCodeLine);
-              codeLineCount++;
-            } // if
-          } // else
+          else if (aCodeLine.lineNo.charAt(0) != ' ')
+             problem = loadCodeLine(aCodeLine);
        } // try
        catch (EOFException e) {                // At EOF, we're done.  
          done = true;                          // Other exceptions are "fatal."
        } // catch
        catch (IOException e) {
-         setStatusMessage(" "+e);  
-         errorFound = true;
-         done = true;
+         problem = ""+e;
        } // catch
       catch (Exception e) {
-        setStatusMessage(" "+e); 
+        problem = ""+e;
+      } // catch
+      if (problem != null) {
+        setStatusMessage(" "+problem);
         errorFound = true;
         done = true;
-      } // catch
-      if (done)
-        break;
-    } // while
-    try {                                      // Close the input.
-       objFileIn.close(); 
-       objectFile = null;
-    } // try
-    catch (IOException e) {
-       setStatusMessage(" "+e); 
-    } // catch
-    if (errorFound)                            // If we found serious errors, return
-      return;                                  // to caller.
-    int addr = 0;
-    programArray  = new Object[codeLineCount][6];    // Prepare program-specific data 
-    codeReference.clear();                           // structures.
-    Enumeration e = codeVector.elements();
-    int lineCount = 0;
-
-    while (e.hasMoreElements()) {                    // Load data structures.
-      aCodeLine = (AssembledCodeLine) e.nextElement();
-      programArray[lineCount][0] = new Boolean(false);      // Load the monitor table...
-      programArray[lineCount][1] = "  "+aCodeLine.lineNo;
-      programArray[lineCount][2] = " "+aCodeLine.stmtLabel;
-      programArray[lineCount][3] = aCodeLine.mnemonic;
-      programArray[lineCount][4] = aCodeLine.operandToken;
-      programArray[lineCount][5] = " "+aCodeLine.hexCode+aCodeLine.operand; 
-      codeReference.put(aCodeLine.lineNo, new Integer(lineCount));
-      lineCount++;
-      try {
-        addr = Integer.parseInt(aCodeLine.lineNo, 16);      // ... and load memory.
       }
-      catch (NumberFormatException exception) {
-        continue;
+    } // while
+    if (objFileIn != null) {
+      try {                                    // Close the input.
+         objFileIn.close(); 
+      } // try
+      catch (IOException e) {
+         setStatusMessage(" "+e); 
       } // catch
-        memoryArray[addr / 16][addr % 16 + 1] = " "+aCodeLine.hexCode+aCodeLine.operand;
-    } // while();
-    String aString = (String) programArray[0][1];
-    try {                                                  // Get memory cell of
-          addr = Integer.parseInt(aString.trim(), 16);     // first instruction.
-    }                                               
-    catch (NumberFormatException exception) {
-           ;
-    } // catch
-    regPC.setValue(addr);                                  // Set PC to first address
+    }
+    if ((!errorFound) && (codeLineCount == 0)) {
+      setStatusMessage(" "+errorMsgs[4]+": no program statements.");
+      errorFound = true;
+    }
+    if (errorFound) {                          // If we found serious errors, return
+      marieReset();                            // to caller without a half-loaded
+      return;                                  // program.
+    }
+    firstAddress = Integer.parseInt(programLines[0].lineNo.trim(), 16);
+    regPC.setValue(firstAddress);                          // Set PC to first address
+    if (fastLoops)
+      countingLoops = CountingLoop.analyze(memory);
+    if (fuse)
+      fusion = new Superinstructions(memory);
     breakpointOn = false;
-    checkForMap();
     if (stepping)
        ;
     machineState = MARIE_HALTED_NORMAL;
-  } // loadProgram()
+  } // readProgram()
+
+
+  String loadCodeLine(AssembledCodeLine aCodeLine) {
+/******************************************************************************************
+*  Validates one code line and stores it as the next row of the program.  Returns null    *
+*  if all is well, otherwise a description of what is wrong with the line.                *
+******************************************************************************************/
+    String addrStr = aCodeLine.lineNo.trim(),
+           wordStr = (aCodeLine.hexCode + aCodeLine.operand).trim();
+    int addr = parseHex(addrStr, 7);
+    if (addr < 0)
+      return errorMsgs[4] + ": bad address \"" + aCodeLine.lineNo + "\".";
+    if (addr > MAX_MARIE_ADDR)
+      return loadExtendedWord(aCodeLine, addr);
+    if (codeReference[addr] >= 0)
+      return errorMsgs[4] + ": address " + addrStr + " is used twice.";
+    int word = parseHex(wordStr, 4);
+    if (word < 0)
+      return errorMsgs[4] + ": bad machine code \"" + wordStr + "\" at " + addrStr + ".";
+    programLines[codeLineCount] = aCodeLine;           // Load the monitor table...
+    breakpoints[codeLineCount] = false;
+    codeReference[addr] = codeLineCount;
+    codeLineCount++;
+    symbols.define(aCodeLine.stmtLabel, addr);
+    writeMemory(addr, word);                           // ... and load memory.
+    return null;
+  } // loadCodeLine()
+
+
+  String loadExtendedWord(AssembledCodeLine aCodeLine, int addr) {
+/******************************************************************************************
+*  A code line above 4K can only be data for an extended machine.  Its word goes into     *
+*  memory, but it gets no row in the program monitor:  the rows are indexed by address    *
+*  up to 4K only, and no instruction there can be run anyway.                             *
+******************************************************************************************/
+    String addrStr = aCodeLine.lineNo.trim(),
+           wordStr = (aCodeLine.hexCode + aCodeLine.operand).trim();
+    if ((extendedMemory == null) || (addr >= extendedMemory.size))
+      return errorMsgs[3] + ": " + addrStr + ".";
+    if (extendedMemory.loaded.get(addr))
+      return errorMsgs[4] + ": address " + addrStr + " is used twice.";
+    int word = parseHex(wordStr, 4);
+    if (word < 0)
+      return errorMsgs[4] + ": bad machine code \"" + wordStr + "\" at " + addrStr + ".";
+    extendedMemory.loaded.set(addr);
+    writeMemory(addr, word);
+    return null;
+  } // loadExtendedWord()
+
+
+  static int parseHex(String hexStr, int maxDigits) {
+/******************************************************************************************
+*  Returns the value of a string of 1 to maxDigits hex digits, or -1 if it isn't one.     *
+*  (Unlike Integer.parseInt() this doesn't throw, and rejects signs and blanks.)          *
+******************************************************************************************/
+    int len = hexStr.length();
+    if ((len == 0) || (len > maxDigits))
+      return -1;
+    int value = 0;
+    for (int i = 0; i < len; i++) {
+      int digit = Character.digit(hexStr.charAt(i), 16);
+      if (digit < 0)
+        return -1;
+      value = (value << 4) | digit;
+    }
+    return value;
+  } // parseHex()
 
 
   void checkForMap() {
 /******************************************************************************************
 *   Checks to see whether there is a symbol table on disk that goes with the program      *
-*   that has been loaded.  If we find one, we activate the [Show Symbol Table] button.    *
+*   that has been loaded.  If we find one, its labels are added to the symbol map.        *
 ******************************************************************************************/
     try { // Prove the previous statement true or false...                       
-          InputStream fileIn = new FileInputStream(mexFile+MAP_TYPE);
+          Reader fileIn = new FileReader(mexFile+MAP_TYPE);
+          try {
+            symbols.read(fileIn);
+          }
+          finally {
+            fileIn.close();
+          }
         }
     catch (IOException e) {                       // No listing file available!
         }
@@ -672,13 +957,21 @@ public class MarieSim {
         return;
      fatalError = false;
      errorCode = 0;
+     instructionCount = 0;
+     cycleCount = 0;
+     inputCount = 0;
+     outputCount = 0;
+     pcHistoryCount = 0;
+     stopRequested = false;
+     if (undoLog != null)
+       undoLog.clear();
      if (stepping) {
        setStatusMessage(" Press [Step] to start.");
      }
      else {
         setStatusMessage("  Press [Run] to start.");
      }   
-     regPC.setValue(((String) programArray[0][1]).trim()); // Set PC to first address of program loaded.
+     regPC.setValue(firstAddress);        // Set PC to first address of program loaded.
      programFocusRow = 0;
      machineState = MARIE_RUNNING;
   } // restart()
@@ -697,21 +990,34 @@ public class MarieSim {
     regINPUT.setValue(0);
     regOUTPUT.setValue(0);
     outputStream = new Vector();               // output Vector.
-    for (int i = 0; i < 4095; i+= 16)  {       // Initialize memory.
-      Arrays.fill(memoryArray[i / 16], " 0000");
-      memoryArray[i / 16][0] = "  "+to3CharHexStr(i);
-    }
-    if (codeLineCount >=0)                     // If we already loaded a program, clear it.
-      for (int i = 0; i < codeLineCount; i++) {
-        programArray[i][0] = new Boolean(false);
-        programArray[i][1] = "  ";
-        programArray[i][2] = "  ";
-        programArray[i][3] = "  ";
-        programArray[i][4] = "  ";
-        programArray[i][5] = "  "; 
-      }
+    Arrays.fill(memory, (short) 0);            // Initialize memory.
+    mtm.allDirty();
+    Arrays.fill(programLines, 0, codeLineCount, null);  // If we already loaded a program,
+    Arrays.fill(breakpoints, 0, codeLineCount, false);  // clear it.
+    Arrays.fill(codeReference, -1);
+    if (extendedMemory != null)
+      extendedMemory.clear();
+    bank = 0;
+    codeLineCount = 0;
+    firstAddress = 0;
+    countingLoops = null;
+    fusion = null;
     programFocusRow = 0;
     memoryFocusCell = 0;
+    instructionCount = 0;
+    cycleCount = 0;
+    inputCount = 0;
+    outputCount = 0;
+    pcHistoryCount = 0;
+    stopRequested = false;
+    if (undoLog != null)
+      undoLog.clear();
+    if (sanitizer != null)
+      sanitizer.clear();
+    if (coverage != null)
+      coverage.clear();
+    if (profiler != null)
+      profiler.clear();
     machineState = MARIE_NO_PROGRAM_LOADED;
     breakpointOn = false;
   } // marieReset
@@ -730,56 +1036,39 @@ public class MarieSim {
 *                                     or invalid operand address.                         *
 *                    Machine state set to MARIE_RUNNING.                                  *
 ******************************************************************************************/
-    String aString;                  // These local variables make the code
-    int  memoryRow, memoryCol;       // cleaner and easier to read.
     if (fatalError)  {                           // Stop if there has been an error.
       halt();
       return;
     }
     regMAR.setValue(regPC.getValue());           // Set MAR to address of next instruction.
     int addr = regMAR.getValue();                // seen on the screen, but we do it this
-    memoryRow = addr / 16;                       // way because it's how the fetch-execute
-    memoryCol = addr % 16 + 1;                   // process works.
-    try {                                                             // Pull instruction
-      regIR.setValue((" "+(String) memoryArray[memoryRow][memoryCol]).trim()); // from memory 
-    }
-    catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-             return;
-    } // catch
-    aString = regPC.toString().trim();           // Move the cursor.
-    if (codeReference.containsKey(aString)) {
-      programFocusRow =((Integer) codeReference.get(aString)).intValue();
+    pcHistory[(int) (pcHistoryCount++ & (PC_HISTORY-1))] = addr;  // way because it's how
+    regIR.setValue(memoryValue(addr));           // the fetch-execute process works.
+    if (codeReference[addr] >= 0)                // Move the cursor.
+      programFocusRow = codeReference[addr];
+    instructionCode = (regIR.getValue() >> 12) & 0x000F;
+    if (instructionCode >= operandReqd.length) { // Make sure we have a valid hexcode.
+      fatalError = true;                         // This double-checks the operandReqd
+      errorCode = 1;                             // array as well!
+      return;
     }
-    aString = regIR.toString().trim();
-    try {
-       instructionCode = Integer.parseInt(aString.substring(0,1), 16);
-       if (instructionCode >= operandReqd.length)  // Make sure we have a valid hexcode.
-         throw new NumberFormatException();        // This double-checks the operandReqd
-    }                                              // array as well!
-    catch (NumberFormatException e) {
+    if ((instructionCode == 15) && !hasOpcodeF()) {  // Not part of plain MARIE.
       fatalError = true;
       errorCode = 1;
       return;
     }
     if (operandReqd[instructionCode]) {            // If instruction needs one,
-      regMAR.setValue(regIR.toString().trim().substring(1,4));  // load the operand into MBR
+      regMAR.setValue(regIR.getValue() & 0x0FFF);  // load the operand into MBR
       addr = regMAR.getValue();
-      memoryRow = addr / 16;
-      memoryCol = addr % 16 + 1;
       memoryFocusCell = addr;
-      try {
-        regMBR.setValue((" "+memoryArray[memoryRow][memoryCol]).trim()); 
-        if (fatalError)
-          return; 
-      }
-      catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-             return;
-      } // catch
+      regMBR.setValue(memoryValue(addr));
     } // if operand
+    if (sanitizer != null)
+      sanitizer.fetched(this, regPC.getValue(), instructionCode, regIR.getValue() & 0x0FFF);
+    if (coverage != null)
+      coverage.executed(regPC.getValue());
+    if (profiler != null)
+      profiler.executed();
     regPC.setValue(regPC.getValue()+1);            // Increment PC.
     if (regPC.getValue() > MAX_MARIE_ADDR) {
        errorCode = 8;
@@ -826,6 +1115,8 @@ public class MarieSim {
                 break;
        case 14: storeI();
                 break;         
+       case 15: opcodeF();
+                break;
       default:
         fatalError = true;
         errorCode = 1;
@@ -838,25 +1129,19 @@ public class MarieSim {
 *   Jump and Store: Store PC at address [MAR] and set PC (jump) to address [MAR]+1.       *
 *   (This instruction can be used to create subroutines in MARIE assembly language.)      *
 ******************************************************************************************/
-     int memoryRow, memoryCol, addr;
+     int addr;
      
      regMBR.setValue(regPC.getValue());
      addr = regIR.getValue();
      addr = addr & 0x0FFF;        // Strip the opcode from the instruction,
      regMAR.setValue(addr);       // leaving the address.
      
-     memoryRow = addr / 16;
-     memoryCol = addr % 16 + 1;
-     try {
-       memoryArray[memoryRow][memoryCol] = " "+to4CharHexStr(regMBR.getValue());
-       regMBR.setValue(regMAR.getValue());
-       regAC.setValue(regMBR.getValue()+1);
-       regPC.setValue(regAC.getValue());
-     }
-     catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-     }
+     writeMemory(addr, regMBR.getValue());
+     regMBR.setValue(regMAR.getValue());
+     regAC.setValue(regMBR.getValue()+1);
+     regPC.setValue(regAC.getValue());
+     if (profiler != null)
+       profiler.called(addr);
    } // jnS() 
 
  
@@ -874,20 +1159,10 @@ public class MarieSim {
 *   Store whatever is in the accumulator to the address specified in the MAR              *
 *   by first moving it to the MBR.                                                        *
 ******************************************************************************************/
-     int memoryRow, memoryCol;
      regMBR.setValue(regAC.getValue());
      if (fatalError)
        return; 
-     int addr = regMAR.getValue();
-     memoryRow = addr / 16;
-     memoryCol = addr % 16 + 1;
-     try {
-       memoryArray[memoryRow][memoryCol] = " "+to4CharHexStr(regMBR.getValue());
-     }
-     catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-     }
+     writeMemory(regMAR.getValue(), regMBR.getValue());
    } // store()
 
 
@@ -895,6 +1170,8 @@ public class MarieSim {
 /******************************************************************************************
 *   Adds the value in the MBR to the AC.  (The MBR is loaded during instruction fetch.)   *
 ******************************************************************************************/
+     if (sanitizer != null)
+       sanitizer.arithmetic(this, regAC.getValue(), '+', regMBR.getValue());
      regAC.setValue(regAC.getValue() + regMBR.getValue());
    } // add() 
 
@@ -903,6 +1180,8 @@ public class MarieSim {
 /******************************************************************************************
 *   Subtracts the value in the MBR from the AC.                                           *
 ******************************************************************************************/
+     if (sanitizer != null)
+       sanitizer.arithmetic(this, regAC.getValue(), '-', regMBR.getValue());
      regAC.setValue(regAC.getValue() - regMBR.getValue());
    } // subt() 
 
@@ -915,31 +1194,48 @@ public class MarieSim {
 *   closed to additional input.  The second entry into this method is triggered by        *
 *   an action event on the INPUT register.                                                *
 *                                                                                         *
-*   After the second pass, we need to resume processing after the blocking call.  If      *
-*   the machineState is MARIE_RUNNING, we just call the runProgram() method again         *
-*   because it terminated when the input() instruction was encountered.  If the           *
-*   simulator is being run in "step" mode, we send a completion message and return        *
-*   to the caller.                                                                        *
+*   In console mode the value is read synchronously from the scanner, so the loop that    *
+*   called us (runProgram() or runToBreakpoint()) simply carries on with the next         *
+*   instruction.  (Calling it again from here would nest a new run loop, or a new         *
+*   thread, for every INPUT executed.)  Running out of input is a fatal error.            *
+*                                                                                         *
+*   In an InteractiveRun the value comes from inputChannel, and the machine is            *
+*   BLOCKED_ON_INPUT (parked in SpscChannel.take()) until the Interactor sends it.        *
 ******************************************************************************************/
-       regINPUT.setValue(scanner.nextInt());
+       inputCount++;
+       if (loopDetector != null)
+         loopDetector.inputTaken();
+       try {
+         if ((undoLog != null) && undoLog.hasReplay())   // Stepped back over it.
+           regINPUT.setValue(undoLog.replay());
+         else if (inputChannel != null) {
+           machineState = MARIE_BLOCKED_ON_INPUT;
+           regINPUT.setValue(inputChannel.take());
+         }
+         else
+           regINPUT.setValue(scanner.nextInt());
+       }
+       catch (NoSuchElementException e) {        // Includes InputMismatchException.
+         if (stopRequested) {                    // Stopped while waiting (the channel
+           machineState = MARIE_HALTED_BY_USER;  // was closed to wake us).
+           return;
+         }
+         fatalError = true;                      // Our caller halts the machine.
+         errorCode = 5;
+         return;
+       }
        if (fatalError) {
          halt();
          return;
        } 
+       if (undoLog != null)
+         undoLog.inputRead();
        regAC.setValue(regINPUT.getValue());
        if (fatalError) {
          halt();
          return;
        } 
        machineState = MARIE_RUNNING;             // Reset the machine state.
-       if (stepping)                             // Proceed with next instruction
-         ;        // or step.
-       else {
-         if (breakpointOn)
-           runToBreakpoint();
-         else  
-           runProgram();
-       }
    } // input()
 
 
@@ -949,13 +1245,17 @@ public class MarieSim {
 *   the text output vector.  Note:  The output appearance is controlled by the radix      *
 *   mode of the output register.                                                          *
 ******************************************************************************************/
+     outputCount++;
      regOUTPUT.setValue(regAC.getValue());
      String outStr = regOUTPUT.toString().trim(); // Put the OUT reg into a string so 
 						  // we can manipulate it.
      if (outStr.length() == 0)                    // If the value is a whitespace,
        outStr = regOUTPUT.toString().substring(4, 5); // keep the whitespace char.
                                                   // Otherwise we lose our spaces!
-     System.out.println(new Integer(regOUTPUT.getValue()));
+     if (outputChannel != null)
+       outputChannel.put(regOUTPUT.getValue());
+     else
+       out.println(regOUTPUT.getValue());
      if (regOUTPUT.toString() != null) 
        ;
      if (outputWithLinefeed)
@@ -971,10 +1271,22 @@ public class MarieSim {
 *   Changes the machine state from (probably) RUNNING to HALTED using the fatalError      *
 *   boolean to determine which one is which.  The statusMessage is also loaded with       *
 *   a string from the errorMessage array so that it can be displayed.                     *
+*                                                                                         *
+*   The first time an abnormal halt is seen, a core dump is written next to the program   *
+*   (see CoreDump).                                                                       *
 ******************************************************************************************/
     stepping = false;
           
     if (fatalError) {
+       if ((machineState != MARIE_HALTED_ABNORMAL) && dumpOnError && (mexFile != null)) {
+         machineState = MARIE_HALTED_ABNORMAL;
+         try {
+           new CoreDump(this).write(mexFile + DMP_TYPE);
+         }
+         catch (IOException e) {
+           setStatusMessage(" "+e);
+         }
+       }
        machineState = MARIE_HALTED_ABNORMAL;
        if (errorCode < errorMsgs.length)
          setStatusMessage(" Machine halted abnormally.  Error: "+errorMsgs[errorCode]);
@@ -1000,9 +1312,12 @@ public class MarieSim {
       return;
      }
      int accumulator = regAC.getValue();
-     if (((accumulator < 0) && (cond == 0))        // Skip if accumulator negative.
-          ||((accumulator == 0) && (cond == 1))    // Skip if accumulator zero.
-          ||((accumulator > 0) && (cond == 2))) {  // Skip if accumulator positive.
+     boolean skip = ((accumulator < 0) && (cond == 0))     // Skip if accumulator negative.
+                    ||((accumulator == 0) && (cond == 1))  // Skip if accumulator zero.
+                    ||((accumulator > 0) && (cond == 2));  // Skip if accumulator positive.
+     if (coverage != null)
+       coverage.branched(regPC.getValue() - 1, skip);
+     if (skip) {
        regPC.setValue(regPC.getValue()+1);
        if (fatalError)
          return; 
@@ -1042,18 +1357,11 @@ public class MarieSim {
      if (fatalError) {
        return;
      }
-     int addr = regMAR.getValue();
-     int memoryRow = addr / 16;
-     int memoryCol = addr % 16 + 1;
-     try {
-           regMBR.setValue(" "+memoryArray[memoryRow][memoryCol]); 
-           add();
-     }
-     catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-             return;
-     }
+     int addr = indirectAddress();
+     if (sanitizer != null)
+       sanitizer.read(this, addr);
+     regMBR.setValue(memoryValue(addr)); 
+     add();
    } // addI()
 
 
@@ -1065,6 +1373,8 @@ public class MarieSim {
 *   this instruction takes a memory operand.                                              *
 ******************************************************************************************/
      regPC.setValue(regMBR.getValue());
+     if (profiler != null)
+       profiler.jumpedThrough(regIR.getValue() & 0x0FFF);
      if (fatalError)
        return; 
    } // jumpI()
@@ -1077,24 +1387,15 @@ public class MarieSim {
 *   to be loaded and put it in the MAR. This address is then used to retrieve the         *
 *   actual value to be loaded, which happens using a call to the laod() method.           *
 ******************************************************************************************/
-     int memoryRow, memoryCol;
-     
      regMAR.setValue(regMBR.getValue());
      if (fatalError) {
        return;
      }
-     int addr = regMAR.getValue();
-     memoryRow = addr / 16;
-     memoryCol = addr % 16 + 1;
-     try {
-           regMBR.setValue(" "+memoryArray[memoryRow][memoryCol]); 
-           load();
-     }
-     catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
-             return;
-     }
+     int addr = indirectAddress();
+     if (sanitizer != null)
+       sanitizer.read(this, addr);
+     regMBR.setValue(memoryValue(addr)); 
+     load();
    } // loadI()
 
   void storeI() { 
@@ -1104,26 +1405,63 @@ public class MarieSim {
 *   first retreive the value stored at the location pointed to by the operand and then    *
 *   use that address to store the value that's in the accumulator.                        *
 ******************************************************************************************/
-     int memoryRow, memoryCol;
-     
      regMAR.setValue(regMBR.getValue());   // MBR contains the operand.
      if (fatalError) {
        return;
      }
-     int addr = regMAR.getValue();        // The operand is the address of the 
-     memoryRow = addr / 16;               // value that is the address of where
-     memoryCol = addr % 16 + 1;           // we will store the contents AC. 
-     try {
-           regMBR.setValue(" "+memoryArray[memoryRow][memoryCol]); 
-           store();                       // So store the value in the AC.
-         }  
-     catch (ArrayIndexOutOfBoundsException e) {
-             errorCode = 3;
-             fatalError = true;
+     int addr = indirectAddress();        // The operand is the address of the 
+                                          // value that is the address of where
+                                          // we will store the contents AC. 
+     if (addr > MAX_MARIE_ADDR) {         // Beyond the MAR of an extended machine.
+       regMBR.setValue(regAC.getValue());
+       writeMemory(addr, regMBR.getValue());
+       return;
      }
-   
+     regMBR.setValue(memoryValue(addr)); 
+     store();                             // So store the value in the AC.
    } // storeI()
 
+
+  int indirectAddress() {
+/******************************************************************************************
+*   The address that the pointer an ADDI, LOADI or STOREI fetched (still in the MBR)      *
+*   points to.  That is the MAR, except on an extended machine, where the pointer is a    *
+*   full word in the bank selected by BANK (see PagedMemory).                             *
+******************************************************************************************/
+     if (extendedMemory == null)
+       return regMAR.getValue();
+     return extendedMemory.address(bank, regMBR.getValue());
+   } // indirectAddress()
+
+
+  boolean hasOpcodeF() {
+/******************************************************************************************
+*   Opcode F isn't part of MARIE:  it is an illegal instruction except on an extended     *
+*   machine, where it is BANK, and on a CPU of a Multiprocessor, where it is SWAP (see    *
+*   Multiprocessor.Cpu, which overrides this and opcodeF()).                              *
+******************************************************************************************/
+     return extendedMemory != null;
+   } // hasOpcodeF()
+
+
+  void opcodeF() {
+     bank();
+   } // opcodeF()
+
+
+  void bank() {
+/******************************************************************************************
+*   Extended machines only:  selects the 64K-word bank, given by the AC, that the         *
+*   pointers of ADDI, LOADI and STOREI point into.  Banks beyond the end of memory wrap.  *
+******************************************************************************************/
+     int oldBank = bank;
+     bank = regAC.getValue() & (extendedMemory.banks() - 1);
+     if ((loopDetector != null) && (bank != oldBank))   // Not part of the state it
+       loopDetector.inputTaken();                       // compares (see writeMemory()).
+     if (undoLog != null)
+       undoLog.bankSet(oldBank);
+   } // bank()
+
 /* --                                                                                 -- */
 /* --  Marie execution control methods.                                               -- */
 /* --                                                                                 -- */
@@ -1134,34 +1472,42 @@ public class MarieSim {
 *   where we have just resumed from a previous breakpoint condition.  This method sets    *
 *   a boolean variable, "resumed," to toggle past the first instruction executed after    *
 *   a previous breakpoint pause.                                                          *
+*                                                                                         *
+*   The run is a series of tasks on the MachineScheduler's stepper thread:  each fetch    *
+*   schedules its execute delay milliseconds later, so no thread sleeps through a run.    *
 ******************************************************************************************/
-     Runnable runIt = new Runnable() {         // Create a thread in which to run.
+     Runnable runIt = new Runnable() {         // Runs half an instruction per call.
        int lastStatementRun;                   // Hold the value of the PC for the
-       Boolean isBreakpoint;                   // instruction we will run.
-       String aString;
+                                               // instruction we will run.
+       boolean fetched = false;                // Fetched, and waiting to execute.
        public void run() {
-         machineState = MARIE_RUNNING;
-         while ((machineState == MARIE_RUNNING) && (!fatalError)) {
-           aString = regPC.toString().trim();           // Move the cursor.
-           if (codeReference.containsKey(aString)) {
-             lastStatementRun =((Integer) codeReference.get(aString)).intValue();
-           }
+         if (!fetched) {
+           if ((machineState != MARIE_RUNNING) || fatalError)
+             return;
+           if (codeReference[regPC.getValue()] >= 0)   // Move the cursor.
+             lastStatementRun = codeReference[regPC.getValue()];
+           if (undoLog != null)
+             undoLog.begin(regPC.getValue(), regAC.getValue());
            fetchNext();
-           try {                              // Give the user a chance to abort and also
-             Thread.sleep(delay);             // a chance to see what's happening.
-           }
-           catch (InterruptedException e) {
-           }
-           if (!fatalError) {
-             execute();
-           }
-           isBreakpoint = (Boolean) programArray[lastStatementRun][0];
-           if ((machineState == MARIE_RUNNING) 
-               && (isBreakpoint.booleanValue()))  {    // Check for a breakpoint.
-             machineState = MARIE_PAUSED;              // If we find one, pause.
-             setStatusMessage(" Stopped for breakpoint."); 
-           }
-         } // while
+           fetched = true;                    // Give the user a chance to abort and also
+           MachineScheduler.stepper().schedule(this, delay,  // a chance to see what's
+                                               TimeUnit.MILLISECONDS);   // happening.
+           return;
+         }
+         fetched = false;
+         if (!fatalError) {
+           instructionCount++;
+           cycleCount += CYCLES[instructionCode];
+           execute();
+           if (undoLog != null)
+             undoLog.commit();
+         }
+         if ((machineState == MARIE_RUNNING) 
+             && (breakpoints[lastStatementRun]))  {  // Check for a breakpoint.
+           machineState = MARIE_PAUSED;              // If we find one, pause.
+           setStatusMessage(" Stopped for breakpoint."); 
+         }
+         MachineScheduler.stepper().execute(this);   // On to the next instruction.
        } // run()
      }; // runIt
    if ((machineState == MARIE_UNINITIALIZED) ||
@@ -1172,19 +1518,54 @@ public class MarieSim {
      restart();
    fatalError = false;
    breakpointOn = true;
-   Thread runThread = new Thread(runIt);         // Run this in a thread.
-   runThread.start();                            // Fire it off.
+   machineState = MARIE_RUNNING;
+   MachineScheduler.stepper().execute(runIt);    // Fire it off.
    if (fatalError)                               // Stop on errors.
      halt();
   } // runToBreakpoint()
 
 
+  boolean stepBack() {
+/******************************************************************************************
+*   Undoes the last instruction run (see UndoLog) and leaves the machine paused, from      *
+*   where it can be stepped back further or run forward again.  If the machine halted,    *
+*   it is as if it hadn't.  Returns false, changing nothing, if the machine is running,   *
+*   has no UndoLog, or has nothing left in it to undo.                                    *
+******************************************************************************************/
+    if ((undoLog == null) || (machineState == MARIE_RUNNING)
+         || (machineState == MARIE_BLOCKED_ON_INPUT) || !undoLog.undo(this))
+      return false;
+    fatalError = false;
+    errorCode = 0;
+    errorFound = false;
+    if (codeReference[regPC.getValue()] >= 0)    // Move the cursor.
+      programFocusRow = codeReference[regPC.getValue()];
+    machineState = MARIE_PAUSED;
+    return true;
+  } // stepBack()
+
+
+  void runBackToBreakpoint() {
+/******************************************************************************************
+*   Steps back until the next instruction to run is at a breakpoint, or until there is    *
+*   nothing left to undo.  Stopping at a breakpoint going forward happens just after the  *
+*   statement has run, so going back stops just before it.                                *
+******************************************************************************************/
+    while (stepBack()) {
+      int row = codeReference[regPC.getValue()];
+      if ((row >= 0) && breakpoints[row]) {
+        setStatusMessage(" Stopped for breakpoint.");
+        return;
+      }
+    } // while
+  } // runBackToBreakpoint()
+
+
   void clearBreakPoints() {
 /******************************************************************************************
-*   Unconditionally removes all breakpoints from the programArray.                        *
+*   Unconditionally removes all breakpoints from the program.                             *
 ******************************************************************************************/
-    for (int i = 0; i < codeLineCount; i++)
-      programArray[i][0] = new Boolean(false);
+    Arrays.fill(breakpoints, 0, codeLineCount, false);
     breakpointOn = false;
 } // clearBreakPoints()
 
@@ -1192,19 +1573,110 @@ public class MarieSim {
   void runProgram() {
 /******************************************************************************************
 *   This method repeatedly invokes the fetch-execute cycle of the simulator until a the   *
-*   program stops or a fatal error is encountered.                                        *
+*   program stops or a fatal error is encountered.  The counts for the run are handed to  *
+*   MarieMetrics once the run is over.                                                    *
+******************************************************************************************/
+    beginRun();
+    runQuantum(Long.MAX_VALUE);
+    endRun();
+  } // runProgram()
+
+
+  void beginRun() {
+/******************************************************************************************
+*   Readies the machine for a run made in quanta by runQuantum() (see MachineScheduler),  *
+*   which endRun() finishes.                                                              *
+******************************************************************************************/
+    runStartNanos = System.nanoTime();
+    runStartInstructions = instructionCount;
+    runStartInputs = inputCount;
+    runStartOutputs = outputCount;
+    breakpointOn = false;
+    if (loopDetector != null)
+      loopDetector.reset(memory);
+  } // beginRun()
+
+
+  boolean runQuantum(long quantum) {
+/******************************************************************************************
+*   Runs the fetch-execute cycle for about quantum instructions (a counting loop or a     *
+*   fused sequence can take it a little past), or until the machine stops.  Returns true  *
+*   if the machine is still running, so that the caller can resume it with another call.  *
+*                                                                                         *
+*   A machine with parkOnInput set doesn't wait in SpscChannel.take() for an INPUT value  *
+*   that hasn't arrived:  it returns before fetching the INPUT, BLOCKED_ON_INPUT, and is  *
+*   resumed (set RUNNING again) once the value is there.                                  *
 ******************************************************************************************/
-   breakpointOn = false;
-   while ((machineState == MARIE_RUNNING) && (!fatalError)) {
+   long stop = (quantum > Long.MAX_VALUE - instructionCount)
+               ? Long.MAX_VALUE : instructionCount + quantum;
+   boolean watched = (undoLog != null)         // Every instruction has to go through
+                     || (sanitizer != null)    // fetchNext() and execute().
+                     || (coverage != null) || (profiler != null);
+   while ((machineState == MARIE_RUNNING) && (!fatalError) && (instructionCount < stop)) {
+     if (stopRequested) {                        // Another thread (e.g., a JudgeServer
+       machineState = MARIE_HALTED_BY_USER;      // timeout) wants us to stop.
+       break;
+     }
+     if ((instructionLimit > 0) && (instructionCount >= instructionLimit)) {
+       fatalError = true;
+       errorCode = 9;
+       break;
+     }
+     if ((cycleLimit > 0) && (cycleCount >= cycleLimit)) {
+       fatalError = true;
+       errorCode = 11;
+       break;
+     }
+     if (parkOnInput && !inputChannel.isReady()
+          && (((memoryValue(regPC.getValue()) >> 12) & 0x000F) == 5)) {
+       machineState = MARIE_BLOCKED_ON_INPUT;
+       break;
+     }
+     if ((countingLoops != null) && !watched && (countingLoops[regPC.getValue()] != null)
+          && countingLoops[regPC.getValue()].fastForward(this))
+       continue;                                 // Skipped to the end of a counting loop.
+     if ((fusion != null) && (loopDetector == null) && !watched && fusion.execute(this))
+       continue;                                 // Ran a fused sequence.
+     if (undoLog != null)
+       undoLog.begin(regPC.getValue(), regAC.getValue());
      fetchNext();
      if (!fatalError) {
+       instructionCount++;
+       cycleCount += CYCLES[instructionCode];
        execute();
+       if (undoLog != null)
+         undoLog.commit();
+       if ((loopDetector != null) && (machineState == MARIE_RUNNING) && (!fatalError)
+            && loopDetector.looping(regPC.getValue(), regAC.getValue(), memory)) {
+         fatalError = true;                      // Been here before since the last
+         errorCode = 10;                         // INPUT, so we'd never get out.
+       }
      }
     } // while
     if (fatalError) {
       halt();
     }
-  } // runProgram()
+    return (machineState == MARIE_RUNNING);
+  } // runQuantum()
+
+
+  void endRun() {
+    MarieMetrics.global.recordRun(machineState, instructionCount - runStartInstructions,
+                                  inputCount - runStartInputs,
+                                  outputCount - runStartOutputs,
+                                  System.nanoTime() - runStartNanos);
+    if (fusion != null)
+      fusion.flushTo(MarieMetrics.global);
+  } // endRun()
+
+
+  void stop() {
+/******************************************************************************************
+*   Asks a running machine to stop at the next instruction boundary.  This is safe to     *
+*   call from any thread; the machine ends up in state MARIE_HALTED_BY_USER.              *
+******************************************************************************************/
+    stopRequested = true;
+  } // stop()
 
 
   public static void runInterpreter(String aFileName) {
@@ -1212,19 +1684,242 @@ public class MarieSim {
 *  This method is the mainline for the MARIE interpreter.  It expects to be passed the    *
 *  name of a MARIE executable code file, <filename>, that will be opened as <filename>.MEX*
 ******************************************************************************************/
-    MarieSim marieSim = new MarieSim();
-  
+    runInterpreter(new MarieSim(), aFileName);
+  } //runInterpreter
+
+
+  static void runInterpreter(MarieSim marieSim, String aFileName) {
+/******************************************************************************************
+*  Loads and runs aFileName on a machine that the caller has already configured.          *
+******************************************************************************************/
     marieSim.getProgram(aFileName);
+    if (marieSim.machineState != MARIE_HALTED_NORMAL)  // Nothing (valid) was loaded.
+      return;
     marieSim.machineState = MARIE_RUNNING;
     marieSim.runProgram();
   } //runInterpreter
 
+
+  static void runInterpreter(MarieSim marieSim, String aFileName, VerdictCache cache) {
+/******************************************************************************************
+*  Runs aFileName as above, unless cache has the outcome of the same run, in which case   *
+*  that run's output is printed instead (see VerdictCache).  The key includes the input,  *
+*  so all of the input is read before the run starts.  Sanitizer findings go to the       *
+*  standard error rather than the output the cache keeps, so such runs aren't cached,     *
+*  and nor are profiled runs, which have to be made to be profiled.                       *
+******************************************************************************************/
+    byte[] program, input;
+    try {
+      InputStream fileIn = new FileInputStream(aFileName);
+      try {
+        program = fileIn.readAllBytes();
+      }
+      finally {
+        fileIn.close();
+      }
+      input = System.in.readAllBytes();
+    }
+    catch (IOException e) {                    // Let the ordinary run report it.
+      runInterpreter(marieSim, aFileName);
+      return;
+    }
+    marieSim.scanner = new IntScanner(new ByteArrayInputStream(input));
+    if ((marieSim.sanitizer != null) || (marieSim.profiler != null)) {
+      runInterpreter(marieSim, aFileName);
+      return;
+    }
+    String key = VerdictCache.key(program, input, marieSim);
+    VerdictCache.Verdict verdict = cache.get(key);
+    if (verdict != null) {
+      marieSim.out.write(verdict.output, 0, verdict.output.length);
+      marieSim.out.flush();
+      return;
+    }
+    VerdictCache.Recorder recorder = new VerdictCache.Recorder(marieSim.out);
+    marieSim.out = new PrintStream(recorder);
+    runInterpreter(marieSim, aFileName);
+    marieSim.out.flush();
+    verdict = VerdictCache.outcome(marieSim, recorder.recorded());
+    if (verdict != null)
+      cache.put(key, verdict);
+  } //runInterpreter
+
 public static void main(String args[]) {
 /******************************************************************************************
 *  This main method runs the MARIE interpreter in standalone console mode by providing a  *
 *  hook to the mainline processing method runInterpreter().  We do this so that the       *
 *  interpreter can be used easily as a class method from another program.                 *
+*                                                                                         *
+*  "MarieSim -server [port [workers [queue]]]" starts the resident JudgeServer instead.   *
+*  "MarieSim -dump <file>.dmp" prints a core dump as a hex table.                         *
+*  "MarieSim -batch <file>.mex <input file> ..." runs a program on many inputs at once    *
+*  (see LockstepBatch).                                                                   *
+*  "MarieSim -interact <interactor class> <file>.mex" runs an interactive problem with    *
+*  the judge's Interactor in this JVM (see InteractiveRun).                               *
+*  "MarieSim -assemble <file>.mas [threads]" assembles a program, or every program in a  *
+*  directory tree, in parallel (see MarieAssembler).                                      *
+*  "MarieSim -coverage <file>.mex <input file> ..." reports which instructions and        *
+*  SKIPCOND outcomes a set of tests exercises (see Coverage).                             *
+*                                                                                         *
+*  Options for a console run come before the file name:                                   *
+*     -metrics <file>   write the MarieMetrics counters to <file> after the run.          *
+*     -cycles <n>       halt after n guest clock cycles (see CYCLES).                     *
+*     -loopcheck        halt as soon as the program is provably in an infinite loop.      *
+*     -fastloops        compute the outcome of simple counting loops instead of running   *
+*                       them (see CountingLoop).                                          *
+*     -fuse             run common instruction sequences as superinstructions.            *
+*     -sanitize         report arithmetic overflow and reads of unwritten memory on the   *
+*                       standard error (see Sanitizer).                                   *
+*     -extended <words> run an extended machine with that many words of memory, e.g.,     *
+*                       64K or 1M (see PagedMemory).                                      *
+*     -cache <dir>      look the run up in, or add it to, the VerdictCache in <dir>.      *
+*     -profile <file>   write the instructions run in each subroutine call path to        *
+*                       <file> as collapsed stacks, and a table of them to the standard   *
+*                       error (see CallProfiler).                                         *
+*     -cpus <n>         run the program on n CPUs sharing memory (see Multiprocessor),    *
+*                       each on a thread of its own.                                      *
+*     -interleave <seed>  run the CPUs on one thread, interleaved as the seed dictates.   *
+*                       (-cpus may not be combined with the options above.)               *
+*     -warmup           run the built-in Warmup program first so that the JIT has         *
+*                       compiled the simulator.  "MarieSim -warmup" on its own runs only  *
+*                       the warm-up, e.g., as the training run for a CDS archive, and     *
+*                       exits with status 1 if it didn't run as it should.                *
 ******************************************************************************************/
-    runInterpreter(args[0]);
+    if (args[0].equals("-server")) {
+      JudgeServer.main(args);
+      return;
+    }
+    if (args[0].equals("-dump")) {
+      CoreDump.main(args);
+      return;
+    }
+    if (args[0].equals("-batch")) {
+      LockstepBatch.main(args);
+      return;
+    }
+    if (args[0].equals("-interact")) {
+      InteractiveRun.main(args);
+      return;
+    }
+    if (args[0].equals("-assemble")) {
+      MarieAssembler.main(args);
+      return;
+    }
+    if (args[0].equals("-coverage")) {
+      Coverage.main(args);
+      return;
+    }
+    if ((args.length == 1) && args[0].equals("-warmup")) {
+      if (!Warmup.run(new MarieSim())) {     // Fail loudly:  make-cds.sh relies on it.
+        System.out.println(" Warm-up failed.");
+        System.exit(1);
+      }
+      System.out.println(" Warm-up done.");
+      return;
+    }
+    String metricsFile = null,
+           cacheDirectory = null,
+           profileFile = null;
+    boolean warmup = false,
+            interleaved = false;
+    int cpus = 0;
+    long seed = 0;
+    MarieSim marieSim = new MarieSim();
+    int arg = 0;
+    for (; (arg < args.length - 1) && args[arg].startsWith("-"); arg++) {
+      if (args[arg].equals("-metrics"))
+        metricsFile = args[++arg];
+      else if (args[arg].equals("-loopcheck"))
+        marieSim.loopDetector = new LoopDetector();
+      else if (args[arg].equals("-fastloops"))
+        marieSim.fastLoops = true;
+      else if (args[arg].equals("-fuse"))
+        marieSim.fuse = true;
+      else if (args[arg].equals("-sanitize"))
+        marieSim.sanitizer = new Sanitizer(System.err, " Sanitizer: ");
+      else if (args[arg].equals("-extended")) {
+        int words = PagedMemory.parseSize(args[++arg]);
+        if (words < 0) {
+          System.out.println(" Bad memory size " + args[arg]);
+          return;
+        }
+        marieSim.extendedMemory = new PagedMemory(words);
+      }
+      else if (args[arg].equals("-cache"))
+        cacheDirectory = args[++arg];
+      else if (args[arg].equals("-profile")) {
+        profileFile = args[++arg];
+        marieSim.profiler = new CallProfiler();
+      }
+      else if (args[arg].equals("-cpus") || args[arg].equals("-interleave")
+               || args[arg].equals("-cycles")) {
+        try {
+          if (args[arg].equals("-cpus"))
+            cpus = Integer.parseInt(args[++arg]);
+          else if (args[arg].equals("-cycles"))
+            marieSim.cycleLimit = Long.parseLong(args[++arg]);
+          else {
+            seed = Long.parseLong(args[++arg]);
+            interleaved = true;
+          }
+        }
+        catch (NumberFormatException e) {
+          System.out.println(" Bad number " + args[arg]);
+          return;
+        }
+      }
+      else if (args[arg].equals("-warmup"))
+        warmup = true;
+      else {
+        System.out.println(" Unknown option " + args[arg]);
+        return;
+      }
+    } // for
+    if (arg >= args.length) {
+      System.out.println(" Usage: MarieSim [options] <file>" + MEX_TYPE);
+      return;
+    }
+    if (warmup && !Warmup.run(marieSim))
+      System.err.println(" Warm-up failed.");
+    if ((cpus > 0) || interleaved) {
+      if ((cpus > Multiprocessor.MAX_CPUS) || (cacheDirectory != null) || marieSim.fuse
+           || marieSim.fastLoops || (marieSim.loopDetector != null)
+           || (marieSim.sanitizer != null) || (marieSim.extendedMemory != null)
+           || (profileFile != null)) {
+        System.out.println(" -cpus takes 1 to " + Multiprocessor.MAX_CPUS
+                           + " CPUs and no -loopcheck, -fastloops, -fuse, -sanitize,"
+                           + " -extended, -cache or -profile.");
+        return;
+      }
+      Multiprocessor.runInterpreter(args[arg], Math.max(1, cpus), interleaved, seed,
+                                    marieSim.cycleLimit);
+    }
+    else if (cacheDirectory != null) {
+      try {
+        runInterpreter(marieSim, args[arg],
+                       new VerdictCache(new File(cacheDirectory), VerdictCache.DEFAULT_MAX_BYTES));
+      }
+      catch (IOException e) {
+        System.out.println(" "+e);
+      }
+    }
+    else
+      runInterpreter(marieSim, args[arg]);
+    if (profileFile != null) {
+      try {
+        marieSim.profiler.write(marieSim, profileFile);
+      }
+      catch (IOException e) {
+        System.out.println(" "+e);
+      }
+    }
+    if (metricsFile != null) {
+      try {
+        MarieMetrics.global.writePrometheus(metricsFile);
+      }
+      catch (IOException e) {
+        System.out.println(" "+e);
+      }
+    }
   } // main() 
 } // MarieSim
@@ -0,0 +1,210 @@
+// File:        MexReader.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class MexReader {
+/******************************************************************************************
+*  A .mex file is a Java object stream of AssembledCodeLines, and opening the first       *
+*  ObjectInputStream in a JVM sets up the serialization filter machinery, reflection and  *
+*  its logging, which takes longer than loading and running a short program.  The         *
+*  assembler only ever writes one shape of stream, though:  AssembledCodeLine objects     *
+*  with nine String fields and an ArrayList of error Strings, with repeated strings and   *
+*  class descriptors written as back references.  parse() reads exactly that shape with   *
+*  a DataInputStream.                                                                     *
+*                                                                                         *
+*  Anything else -- another class, another serialVersionUID, a missing or extra field, a  *
+*  non-String error, a long string, a truncated stream -- makes parse() return null and   *
+*  readProgram() reads the bytes with a filtered ObjectInputStream as before, so such     *
+*  files are accepted or rejected with the same messages as ever.  No class is ever       *
+*  instantiated here other than AssembledCodeLine, ArrayList and String.                  *
+******************************************************************************************/
+  static final int  TC_NULL = 0x70,          // Object stream constants (see the Java
+               TC_REFERENCE = 0x71,          // Object Serialization Specification).
+               TC_CLASSDESC = 0x72,
+                  TC_OBJECT = 0x73,
+                  TC_STRING = 0x74,
+                TC_BLOCKDATA = 0x77,
+             TC_ENDBLOCKDATA = 0x78,
+                   TC_RESET = 0x79,
+               BASE_HANDLE = 0x7E0000,
+           SC_WRITE_METHOD = 0x01,
+           SC_SERIALIZABLE = 0x02;
+  static final String LINE_CLASS = "MarieSimulator.AssembledCodeLine",
+                      LIST_CLASS = "java.util.ArrayList";
+  static final long   LINE_UID   = 030000L,              // AssembledCodeLine's,
+                      LIST_UID   = 8683452581122892189L; // ArrayList's.
+  static final String[] LINE_FIELDS = { "comment", "errors", "hexCode", "lineNo",
+                                        "mnemonic", "operand", "operandToken",
+                                        "sourceLine", "stmtLabel" };  // As sorted by
+  static final String LINE_TYPES = "Ljava/lang/String;Ljava/util/ArrayList;"  // Object-
+                                   + "Ljava/lang/String;Ljava/lang/String;"  // Output-
+                                   + "Ljava/lang/String;Ljava/lang/String;"  // Stream.
+                                   + "Ljava/lang/String;Ljava/lang/String;"
+                                   + "Ljava/lang/String;";
+
+  DataInputStream  in;
+  ArrayList   handles = new ArrayList();      // Objects by handle - BASE_HANDLE.
+
+  static class ClassDesc {
+    String       name;
+    String[]   fields;
+  } // ClassDesc
+
+  MexReader(byte[] bytes) {
+    in = new DataInputStream(new ByteArrayInputStream(bytes));
+  } // MexReader()
+
+
+  static ArrayList parse(byte[] bytes) {
+/******************************************************************************************
+*  Returns the AssembledCodeLines in bytes, up to the end of the stream or a null, or     *
+*  null if the stream isn't in the form described above.                                  *
+******************************************************************************************/
+    try {
+      return new MexReader(bytes).lines();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  } // parse()
+
+
+  ArrayList lines() throws IOException {
+    if ((in.readUnsignedShort() != 0xACED) || (in.readUnsignedShort() != 5))
+      throw new StreamCorruptedException();
+    ArrayList lines = new ArrayList();
+    int tc;
+    while (((tc = in.read()) >= 0) && (tc != TC_NULL)) {
+      if (tc == TC_RESET)
+        handles.clear();
+      else if (tc == TC_OBJECT)
+        lines.add(readLine());
+      else
+        throw new StreamCorruptedException();
+    } // while
+    return lines;
+  } // lines()
+
+
+  AssembledCodeLine readLine() throws IOException {
+/******************************************************************************************
+*  Reads an AssembledCodeLine after its TC_OBJECT.                                        *
+******************************************************************************************/
+    ClassDesc desc = readClassDesc();
+    if ((desc == null) || !desc.name.equals(LINE_CLASS))
+      throw new InvalidClassException(LINE_CLASS);
+    AssembledCodeLine line = new AssembledCodeLine();
+    handles.add(line);
+    for (int i = 0; i < desc.fields.length; i++) {
+      String field = desc.fields[i];
+      if (field.equals("errors"))
+        line.errors = readList();
+      else {
+        String value = readString();
+        if (field.equals("comment"))           line.comment = value;
+        else if (field.equals("hexCode"))      line.hexCode = value;
+        else if (field.equals("lineNo"))       line.lineNo = value;
+        else if (field.equals("mnemonic"))     line.mnemonic = value;
+        else if (field.equals("operand"))      line.operand = value;
+        else if (field.equals("operandToken")) line.operandToken = value;
+        else if (field.equals("sourceLine"))   line.sourceLine = value;
+        else                                   line.stmtLabel = value;
+      }
+    } // for
+    return line;
+  } // readLine()
+
+
+  ArrayList readList() throws IOException {
+    int tc = in.readUnsignedByte();
+    if (tc == TC_NULL)
+      return null;
+    if (tc == TC_REFERENCE)
+      return (ArrayList) handle(ArrayList.class);
+    if (tc != TC_OBJECT)
+      throw new StreamCorruptedException();
+    ClassDesc desc = readClassDesc();
+    if ((desc == null) || !desc.name.equals(LIST_CLASS))
+      throw new InvalidClassException(LIST_CLASS);
+    ArrayList list = new ArrayList();
+    handles.add(list);
+    int size = in.readInt();                   // The size field, then writeObject()'s
+    if ((size < 0) || (in.readUnsignedByte() != TC_BLOCKDATA)  // block with the
+        || (in.readUnsignedByte() != 4))                         // capacity, then
+      throw new StreamCorruptedException();                      // the elements.
+    in.readInt();
+    for (int i = 0; i < size; i++)
+      list.add(readString());
+    if (in.readUnsignedByte() != TC_ENDBLOCKDATA)
+      throw new StreamCorruptedException();
+    return list;
+  } // readList()
+
+
+  ClassDesc readClassDesc() throws IOException {
+/******************************************************************************************
+*  Reads a class descriptor, which must be AssembledCodeLine's or ArrayList's exactly as  *
+*  ObjectOutputStream writes them, or a reference to one, or null.                        *
+******************************************************************************************/
+    int tc = in.readUnsignedByte();
+    if (tc == TC_NULL)
+      return null;
+    if (tc == TC_REFERENCE)
+      return (ClassDesc) handle(ClassDesc.class);
+    if (tc != TC_CLASSDESC)
+      throw new StreamCorruptedException();
+    ClassDesc desc = new ClassDesc();
+    desc.name = in.readUTF();
+    long uid = in.readLong();
+    handles.add(desc);
+    int flags = in.readUnsignedByte();
+    desc.fields = new String[in.readUnsignedShort()];
+    StringBuffer types = new StringBuffer();
+    for (int i = 0; i < desc.fields.length; i++) {
+      char type = (char) in.readUnsignedByte();
+      desc.fields[i] = in.readUTF();
+      if ((type == 'L') || (type == '['))      // Objects have their type's signature,
+        types.append(readString());            // primitives just the type code.
+      else
+        types.append(type);
+    } // for
+    if ((in.readUnsignedByte() != TC_ENDBLOCKDATA) || (readClassDesc() != null))
+      throw new StreamCorruptedException();    // No annotations or superclass.
+    if (desc.name.equals(LINE_CLASS) && (uid == LINE_UID) && (flags == SC_SERIALIZABLE)
+         && Arrays.asList(desc.fields).equals(Arrays.asList(LINE_FIELDS))
+         && types.toString().equals(LINE_TYPES))
+      return desc;
+    if (desc.name.equals(LIST_CLASS) && (uid == LIST_UID)
+         && (flags == (SC_WRITE_METHOD | SC_SERIALIZABLE))
+         && (desc.fields.length == 1) && desc.fields[0].equals("size")
+         && types.toString().equals("I"))
+      return desc;
+    throw new InvalidClassException(desc.name);
+  } // readClassDesc()
+
+
+  String readString() throws IOException {
+    int tc = in.readUnsignedByte();
+    if (tc == TC_NULL)
+      return null;
+    if (tc == TC_REFERENCE)
+      return (String) handle(String.class);
+    if (tc != TC_STRING)                       // TC_LONGSTRING can't occur in a .mex.
+      throw new StreamCorruptedException();
+    String s = in.readUTF();
+    handles.add(s);
+    return s;
+  } // readString()
+
+
+  Object handle(Class type) throws IOException {
+    int h = in.readInt() - BASE_HANDLE;
+    if ((h < 0) || (h >= handles.size()) || !type.isInstance(handles.get(h)))
+      throw new StreamCorruptedException();
+    return handles.get(h);
+  } // handle()
+} // MexReader
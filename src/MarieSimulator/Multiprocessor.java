@@ -0,0 +1,268 @@
+// File:        Multiprocessor.java
+// JDK Version: 9
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+public class Multiprocessor {
+/******************************************************************************************
+*  Several MARIE CPUs sharing one memory, for demonstrating concurrency.  Each CPU is a    *
+*  MarieSim of its own (a Cpu), with its own AC, PC, IR, MAR and MBR, but all of them use *
+*  the memory array of the first, into which the program is loaded.  Every CPU starts at  *
+*  the program's first address with its own number (0, 1, ...) in its AC, so that the    *
+*  program can tell them apart.  They share the input and the output:  each INPUT takes   *
+*  the next value, and each OUTPUT prints a whole line.                                   *
+*                                                                                         *
+*  Memory model:  memory is sequentially consistent.  Every load and store of a word,     *
+*  including fetching an instruction, is a volatile access, so all CPUs see all stores in *
+*  one order that agrees with the program order of each CPU.  Opcode F is SWAP X, which   *
+*  atomically exchanges the AC with the word at X;  a CPU can take a lock by swapping a   *
+*  1 into it and checking that it got a 0 back (test-and-set).                            *
+*                                                                                         *
+*  Each CPU runs on a thread of its own, so a program's throughput grows with the host's  *
+*  cores and the order in which the CPUs' instructions happen is up to the host.  For     *
+*  grading, an interleaving seed runs all the CPUs on one thread instead, switching       *
+*  between them at random points chosen by a Random with that seed:  the same seed       *
+*  always gives the same run, and different seeds try different interleavings.           *
+*                                                                                         *
+*  A CPU halts on its own when it runs HALT;  the run is over when all have halted.  If   *
+*  one halts abnormally the others are stopped (HALTED_BY_USER), and the run ends with    *
+*  that CPU's error.  The instruction and cycle limits apply to each CPU.  The counting-  *
+*  loop, superinstruction, loop-checking, undo and sanitizing features all assume that    *
+*  nothing else writes memory, so none of them is available here.                         *
+******************************************************************************************/
+  public static final int MAX_CPUS    = 64;
+  static final int        MAX_QUANTUM = 16;    // Most instructions a CPU runs in one turn
+                                               // when interleaving.
+  static final VarHandle  WORDS = MethodHandles.arrayElementVarHandle(short[].class);
+
+  Cpu[]                  cpus;
+  long       instructionLimit = 0;             // Per CPU, as for MarieSim.
+  long             cycleLimit = 0;
+  boolean         interleaved = false;         // Run on one thread, switching by seed.
+  long                   seed = 0;
+  Cpu                  failed = null;          // First CPU to halt abnormally.
+  int            machineState = MarieSim.MARIE_NO_PROGRAM_LOADED;  // Of the whole run.
+  int               errorCode = 0;
+  long       instructionCount = 0;             // Over all CPUs.
+
+  class Cpu extends MarieSim {
+/******************************************************************************************
+*  One CPU.  Memory is reached through WORDS (see the memory model above), and opcode F   *
+*  is SWAP.  Writes don't mark the memory table's dirty rows (see MemoryTableModel).      *
+******************************************************************************************/
+    int number;
+
+    Cpu(int number, IntScanner scanner, PrintStream out) {
+      super(new ByteArrayInputStream(new byte[0]), out);
+      this.number = number;
+      this.scanner = scanner;
+    } // Cpu()
+
+    int memoryValue(int addr) {
+      return (short) WORDS.getVolatile(memory, addr);
+    } // memoryValue()
+
+    void writeMemory(int addr, int value) {
+      WORDS.setVolatile(memory, addr, (short) value);
+    } // writeMemory()
+
+    boolean hasOpcodeF() {
+      return true;
+    } // hasOpcodeF()
+
+    void opcodeF() {
+/******************************************************************************************
+*  SWAP X:  AC <- M[X] and M[X] <- AC, atomically.                                        *
+******************************************************************************************/
+      int addr = regIR.getValue() & 0x0FFF;
+      regMAR.setValue(addr);
+      regMBR.setValue((short) WORDS.getAndSet(memory, addr, (short) regAC.getValue()));
+      regAC.setValue(regMBR.getValue());
+    } // opcodeF()
+
+    void setStatusMessage(String msg) {
+      out.println(" CPU " + number + ":" + msg);
+    } // setStatusMessage()
+
+    void run(long steps) {
+/******************************************************************************************
+*  Runs at most steps instructions, stopping early if this CPU halts.  This is the loop   *
+*  of runProgram() without the features that don't apply to a Multiprocessor.            *
+******************************************************************************************/
+      for (; (steps > 0) && (machineState == MARIE_RUNNING) && !fatalError; steps--) {
+        if (stopRequested) {
+          machineState = MARIE_HALTED_BY_USER;
+          break;
+        }
+        if ((instructionLimit > 0) && (instructionCount >= instructionLimit)) {
+          fatalError = true;
+          errorCode = 9;
+          break;
+        }
+        if ((cycleLimit > 0) && (cycleCount >= cycleLimit)) {
+          fatalError = true;
+          errorCode = 11;
+          break;
+        }
+        fetchNext();
+        if (!fatalError) {
+          instructionCount++;
+          cycleCount += CYCLES[instructionCode];
+          execute();
+        }
+      } // for
+      if (fatalError && (machineState != MARIE_HALTED_ABNORMAL)) {
+        halt();
+        halted(this);
+      }
+    } // run()
+  } // Cpu
+
+
+  public Multiprocessor(int count, InputStream in, PrintStream out) {
+/******************************************************************************************
+*  Builds count CPUs that read INPUT values from in and write OUTPUT values to out.       *
+******************************************************************************************/
+    IntScanner shared = new IntScanner(in) {
+      synchronized int nextInt() {
+        return super.nextInt();
+      }
+    };
+    cpus = new Cpu[count];
+    for (int i = 0; i < count; i++)
+      cpus[i] = new Cpu(i, shared, out);
+  } // Multiprocessor()
+
+
+  public boolean load(InputStream program) {
+/******************************************************************************************
+*  Loads the program into the shared memory and readies every CPU to run it.  Returns     *
+*  false, having printed why, if it can't be loaded.                                      *
+******************************************************************************************/
+    Cpu first = cpus[0];
+    first.loadProgram(program);
+    if (first.errorFound)
+      return false;
+    for (int i = 0; i < cpus.length; i++) {
+      Cpu cpu = cpus[i];
+      cpu.memory = first.memory;
+      cpu.regPC.setValue(first.firstAddress);
+      cpu.regAC.setValue(i);
+      cpu.instructionLimit = instructionLimit;
+      cpu.cycleLimit = cycleLimit;
+      cpu.dumpOnError = false;               // A core dump holds one set of registers.
+      cpu.machineState = MarieSim.MARIE_RUNNING;
+    } // for
+    machineState = MarieSim.MARIE_RUNNING;
+    return true;
+  } // load()
+
+
+  synchronized void halted(Cpu cpu) {
+/******************************************************************************************
+*  Called when cpu halts abnormally:  the first to do so stops all the others.            *
+******************************************************************************************/
+    if (failed == null) {
+      failed = cpu;
+      stop();
+    }
+  } // halted()
+
+
+  public void stop() {
+    for (int i = 0; i < cpus.length; i++)
+      cpus[i].stop();
+  } // stop()
+
+
+  public void run() {
+/******************************************************************************************
+*  Runs every CPU until all have halted, then works out the outcome of the run.           *
+******************************************************************************************/
+    long start = System.nanoTime();
+    if (interleaved)
+      runInterleaved();
+    else
+      runThreads();
+    instructionCount = 0;
+    long inputs = 0,
+         outputs = 0;
+    machineState = MarieSim.MARIE_HALTED_NORMAL;
+    for (int i = 0; i < cpus.length; i++) {
+      instructionCount += cpus[i].instructionCount;
+      inputs += cpus[i].inputCount;
+      outputs += cpus[i].outputCount;
+      if (cpus[i].machineState == MarieSim.MARIE_HALTED_BY_USER)
+        machineState = MarieSim.MARIE_HALTED_BY_USER;
+    } // for
+    if (failed != null) {
+      machineState = MarieSim.MARIE_HALTED_ABNORMAL;
+      errorCode = failed.errorCode;
+    }
+    MarieMetrics.global.recordRun(machineState, instructionCount, inputs, outputs,
+                                  System.nanoTime() - start);
+  } // run()
+
+
+  void runThreads() {
+    Thread[] threads = new Thread[cpus.length];
+    for (int i = 0; i < cpus.length; i++) {
+      final Cpu cpu = cpus[i];
+      threads[i] = new Thread(new Runnable() {
+        public void run() { cpu.run(Long.MAX_VALUE); }
+      }, "MARIE CPU " + i);
+      threads[i].start();
+    } // for
+    for (int i = 0; i < cpus.length; i++) {
+      try {
+        threads[i].join();
+      }
+      catch (InterruptedException e) {         // Stop them, then keep waiting.
+        stop();
+        i--;
+      }
+    } // for
+  } // runThreads()
+
+
+  void runInterleaved() {
+/******************************************************************************************
+*  Repeatedly gives a CPU picked at random from those still running a turn of 1 to        *
+*  MAX_QUANTUM instructions, also picked at random.                                       *
+******************************************************************************************/
+    Random random = new Random(seed);
+    Cpu[] running = cpus.clone();
+    int count = running.length;
+    while (count > 0) {
+      int i = random.nextInt(count);
+      running[i].run(1 + random.nextInt(MAX_QUANTUM));
+      if (running[i].machineState != MarieSim.MARIE_RUNNING)
+        running[i] = running[--count];        // Keeps the order of the rest fixed too.
+    } // while
+  } // runInterleaved()
+
+
+  static void runInterpreter(String aFileName, int count, boolean interleaved, long seed,
+                             long cycleLimit) {
+/******************************************************************************************
+*  Runs aFileName on count CPUs for "MarieSim -cpus <count> [-interleave <seed>]".        *
+******************************************************************************************/
+    Multiprocessor system = new Multiprocessor(count, System.in, System.out);
+    system.cycleLimit = cycleLimit;
+    system.interleaved = interleaved;
+    system.seed = seed;
+    InputStream fileIn;
+    try {
+      fileIn = new FileInputStream(aFileName);
+    }
+    catch (FileNotFoundException e) {
+      System.out.println(" File " + aFileName + " not found.");
+      return;
+    }
+    if (system.load(fileIn))
+      system.run();
+  } // runInterpreter()
+} // Multiprocessor
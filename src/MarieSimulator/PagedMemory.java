@@ -0,0 +1,108 @@
+// File:        PagedMemory.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.util.*;
+
+class PagedMemory {
+/******************************************************************************************
+*  The memory of an extended machine above the first 4K words.  Those 4K stay in          *
+*  MarieSim.memory, where the program runs and where every direct operand points;  the    *
+*  words above them can only be reached through the pointers of ADDI, LOADI and STOREI.   *
+*  In extended mode a pointer is a full 16-bit word, and the BANK instruction (opcode F)  *
+*  picks which 64K-word bank of the address space it points into:                        *
+*                                                                                         *
+*     address = (bank * 65536 + (pointer & 0xFFFF)) mod size                              *
+*                                                                                         *
+*  so bank 0 with pointers below 1000 hex is the ordinary 4K memory.  The size is a       *
+*  power of 2 between 8K and 16M words.                                                   *
+*                                                                                         *
+*  Words are kept in pages of PAGE_WORDS, each allocated the first time a non-zero word  *
+*  is written to it;  a page never written reads as zeros.  So a machine that uses a few  *
+*  scattered words of a 16M address space allocates a few pages, and one that doesn't    *
+*  use it at all only its table of page references.                                      *
+******************************************************************************************/
+  static final int PAGE_BITS  = 10;
+  static final int PAGE_WORDS = 1 << PAGE_BITS;
+  static final int MIN_SIZE   = 2 * (MarieSim.MAX_MARIE_ADDR + 1);
+  static final int MAX_SIZE   = 1 << 24;
+  static final int BANK_BITS  = 16;
+
+  int          size;                         // Words in the whole address space.
+  short[][]   pages;                         // Null where never written.
+  int     allocated = 0;                     // Pages not null.
+  BitSet     loaded = new BitSet();          // Words above 4K set by the program image.
+
+  PagedMemory(int size) {
+    this.size = size;
+    pages = new short[size >> PAGE_BITS][];
+  } // PagedMemory()
+
+
+  static int parseSize(String s) {
+/******************************************************************************************
+*  Returns the number of words given by s, e.g., "65536", "64K" or "1M", or -1 if it      *
+*  isn't a valid size.                                                                    *
+******************************************************************************************/
+    int scale = 1;
+    if (s.endsWith("K") || s.endsWith("k"))
+      scale = 1 << 10;
+    else if (s.endsWith("M") || s.endsWith("m"))
+      scale = 1 << 20;
+    if (scale > 1)
+      s = s.substring(0, s.length() - 1);
+    long words;
+    try {
+      words = Long.parseLong(s) * scale;
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+    if ((words < MIN_SIZE) || (words > MAX_SIZE) || ((words & (words - 1)) != 0))
+      return -1;
+    return (int) words;
+  } // parseSize()
+
+
+  void clear() {
+/******************************************************************************************
+*  Called by marieReset():  gives all the pages back.                                     *
+******************************************************************************************/
+    Arrays.fill(pages, null);
+    allocated = 0;
+    loaded.clear();
+  } // clear()
+
+
+  int banks() {
+    return Math.max(1, size >> BANK_BITS);
+  } // banks()
+
+
+  int address(int bank, int pointer) {
+    return ((bank << BANK_BITS) + (pointer & 0xFFFF)) & (size - 1);
+  } // address()
+
+
+  int read(int addr) {
+    short[] page = pages[addr >> PAGE_BITS];
+    return (page == null) ? 0 : page[addr & (PAGE_WORDS-1)];
+  } // read()
+
+
+  int write(int addr, int value) {
+/******************************************************************************************
+*  Stores value at addr (above 4K) and returns the word that was there.                   *
+******************************************************************************************/
+    short[] page = pages[addr >> PAGE_BITS];
+    if (page == null) {
+      if ((short) value == 0)                  // Already reads as zero.
+        return 0;
+      page = pages[addr >> PAGE_BITS] = new short[PAGE_WORDS];
+      allocated++;
+    }
+    int oldValue = page[addr & (PAGE_WORDS-1)];
+    page[addr & (PAGE_WORDS-1)] = (short) value;
+    return oldValue;
+  } // write()
+} // PagedMemory
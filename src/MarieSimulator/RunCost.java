@@ -0,0 +1,135 @@
+// File:        RunCost.java
+// JDK Version: 7
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.lang.management.*;
+
+class RunCost {
+/******************************************************************************************
+*  What a run cost the host, as opposed to its verdict:  the CPU time of the thread that  *
+*  ran it, the bytes that thread allocated on the heap, the instructions it executed and  *
+*  the bytes of output it produced.  A JudgeServer appends the first two and the last to  *
+*  each trailer line, and MarieMetrics keeps the totals of the first two, so that a       *
+*  pathological submission stands out and so does an interpreter that starts to           *
+*  allocate as it runs.                                                                   *
+*                                                                                         *
+*  CPU time and allocation come from the ThreadMXBean, as differences between begin()     *
+*  and end(), which must therefore be called on the same thread.  A run made in quanta    *
+*  on different threads (see MachineScheduler) adds up the differences between resume()   *
+*  and pause() around each quantum instead.  Where the JVM can't measure one of them it   *
+*  is reported as -1.  Each measurement is a call into the JVM, so we take them once per  *
+*  run, batch or quantum, never per instruction.                                          *
+******************************************************************************************/
+  static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  static final com.sun.management.ThreadMXBean ALLOCATION =
+        (THREADS instanceof com.sun.management.ThreadMXBean)
+           && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+        ? (com.sun.management.ThreadMXBean) THREADS : null;
+  static final boolean TIMED = THREADS.isCurrentThreadCpuTimeSupported();
+
+  long       cpuNanos = -1;                  // Once end() has been called.
+  long allocatedBytes = -1;
+  long   instructions = 0;
+  long    outputBytes = 0;
+  long       startCpu = -1;                  // Readings taken by resume(), -1 while
+  long startAllocated = -1;                  // paused.
+
+  static RunCost begin() {
+    RunCost cost = new RunCost();
+    cost.resume();
+    return cost;
+  } // begin()
+
+
+  void resume() {
+    if (TIMED)
+      startCpu = THREADS.getCurrentThreadCpuTime();
+    startAllocated = allocatedByThread();
+  } // resume()
+
+
+  void pause() {
+/******************************************************************************************
+*  Adds what this thread has used since resume().  Pausing again before resuming does     *
+*  nothing.                                                                               *
+******************************************************************************************/
+    if (startCpu >= 0) {
+      long now = THREADS.getCurrentThreadCpuTime();
+      if (now >= 0)
+        cpuNanos = Math.max(cpuNanos, 0) + now - startCpu;
+    }
+    if (startAllocated >= 0) {
+      long now = allocatedByThread();
+      if (now >= 0)
+        allocatedBytes = Math.max(allocatedBytes, 0) + now - startAllocated;
+    }
+    startCpu = -1;
+    startAllocated = -1;
+  } // pause()
+
+
+  void end(long instructions, long outputBytes) {
+/******************************************************************************************
+*  Takes the readings at the end of the run and hands them to MarieMetrics.               *
+******************************************************************************************/
+    pause();
+    this.instructions = instructions;
+    this.outputBytes = outputBytes;
+    MarieMetrics.global.recordCost(cpuNanos, allocatedBytes);
+  } // end()
+
+
+  static long allocatedByThread() {
+    if (ALLOCATION == null)
+      return -1;
+    return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+  } // allocatedByThread()
+
+
+  RunCost share(long instructions, long outputBytes) {
+/******************************************************************************************
+*  The part of this cost (of a whole batch) that falls to one of its runs, which executed *
+*  the given instructions:  the runs of a LockstepBatch are made together, so CPU time    *
+*  and allocation can only be divided up in proportion to the instructions of each.       *
+******************************************************************************************/
+    RunCost part = new RunCost();
+    double fraction = (this.instructions > 0)
+                      ? (double) instructions / this.instructions : 0.0;
+    part.cpuNanos = (cpuNanos < 0) ? -1 : Math.round(cpuNanos * fraction);
+    part.allocatedBytes = (allocatedBytes < 0) ? -1 : Math.round(allocatedBytes * fraction);
+    part.instructions = instructions;
+    part.outputBytes = outputBytes;
+    return part;
+  } // share()
+
+
+  public String toString() {
+/******************************************************************************************
+*  The fields appended to a trailer line:  <cpuMicros> <allocatedBytes> <outputBytes>.    *
+******************************************************************************************/
+    return ((cpuNanos < 0) ? -1 : cpuNanos / 1000) + " " + allocatedBytes + " " + outputBytes;
+  } // toString()
+
+
+  static class Counter extends FilterOutputStream {
+/******************************************************************************************
+*  Passes output on to where it is going, counting the bytes.                             *
+******************************************************************************************/
+    long count = 0;
+
+    Counter(OutputStream target) {
+      super(target);
+    } // Counter()
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    } // write()
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    } // write()
+  } // Counter
+} // RunCost
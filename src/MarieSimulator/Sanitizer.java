@@ -0,0 +1,128 @@
+// File:        Sanitizer.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+
+class Sanitizer {
+/******************************************************************************************
+*  Reports two kinds of bug that MARIE itself lets pass without a trace:                  *
+*                                                                                         *
+*     ADD, SUBT or ADDI overflowing the AC, which Register.setValue() silently wraps to   *
+*     16 bits, and                                                                        *
+*     reading a word that neither the program image nor the program itself ever wrote     *
+*     (it just reads as whatever marieReset() left there), including executing one.      *
+*                                                                                         *
+*  Written words are tracked in a shadow bitmap, one bit per address, set by              *
+*  writeMemory() (which also loads the program).  A word is "read" by LOAD, ADD and SUBT  *
+*  (their operand), by ADDI, LOADI, STOREI and JUMPI (the pointer), by ADDI and LOADI     *
+*  (the word pointed to) and by being fetched as an instruction.                          *
+*                                                                                         *
+*  Each overflowing instruction and each unwritten word is reported only once, with the   *
+*  address and source statement of the instruction, so a loop doesn't flood the report.  *
+*  A machine without a Sanitizer pays one null test per hook.                             *
+******************************************************************************************/
+  static final int WORDS = (MarieSim.MAX_MARIE_ADDR + 1) / 64;
+
+  PrintStream    report;                     // Where findings go, each line starting
+  String         prefix;                     // with prefix.
+  long[]        written = new long[WORDS];   // Bit per address:  ever written.
+  long[]   readReported = new long[WORDS];   // Unwritten words already reported,
+  long[] overflowReported = new long[WORDS]; // and instructions that overflowed.
+  int          findings = 0;
+  int       instruction = 0;                 // Address of the instruction being run.
+
+  Sanitizer(PrintStream report, String prefix) {
+    this.report = report;
+    this.prefix = prefix;
+  } // Sanitizer()
+
+
+  static boolean isSet(long[] bits, int addr) {
+    return (bits[addr >> 6] & (1L << addr)) != 0;
+  } // isSet()
+
+
+  static void set(long[] bits, int addr) {
+    bits[addr >> 6] |= 1L << addr;
+  } // set()
+
+
+  void clear() {
+/******************************************************************************************
+*  Called by marieReset():  memory has been zeroed, so nothing counts as written.         *
+******************************************************************************************/
+    Arrays.fill(written, 0);
+    Arrays.fill(readReported, 0);
+    Arrays.fill(overflowReported, 0);
+    findings = 0;
+  } // clear()
+
+
+  void written(int addr) {
+    set(written, addr);
+  } // written()
+
+
+  void fetched(MarieSim m, int pc, int opcode, int operand) {
+/******************************************************************************************
+*  Called by fetchNext() for the instruction at pc, once the operand (if any) is known.   *
+******************************************************************************************/
+    instruction = pc;
+    if (!isSet(written, pc) && !isSet(readReported, pc)) {
+      set(readReported, pc);
+      report("executes unwritten word " + m.to3CharHexStr(pc));
+    }
+    switch (opcode) {
+      case  1: case  3: case  4:                 // LOAD, ADD, SUBT
+      case 11: case 12: case 13: case 14:        // ADDI, JUMPI, LOADI, STOREI
+        read(m, operand);
+    } // switch
+  } // fetched()
+
+
+  void read(MarieSim m, int addr) {
+/******************************************************************************************
+*  The instruction being run reads the word at addr.  Words above 4K, on an extended      *
+*  machine, aren't tracked.                                                               *
+******************************************************************************************/
+    if (addr > MarieSim.MAX_MARIE_ADDR)
+      return;
+    if (!isSet(written, addr) && !isSet(readReported, addr)) {
+      set(readReported, addr);
+      report("read of unwritten word " + m.to3CharHexStr(addr)
+             + where(m, instruction));
+    }
+  } // read()
+
+
+  void arithmetic(MarieSim m, int ac, char op, int operand) {
+/******************************************************************************************
+*  The instruction being run is about to put ac + operand (op '+') or ac - operand (op    *
+*  '-') into the AC.                                                                      *
+******************************************************************************************/
+    int result = (op == '+') ? ac + operand : ac - operand;
+    if ((result != (short) result) && !isSet(overflowReported, instruction)) {
+      set(overflowReported, instruction);
+      report("overflow" + where(m, instruction) + ": " + ac + " " + op + " " + operand
+             + " = " + result + ", wraps to " + (short) result);
+    }
+  } // arithmetic()
+
+
+  static String where(MarieSim m, int pc) {
+    String s = " at " + m.to3CharHexStr(pc);
+    if (m.codeReference[pc] >= 0) {
+      AssembledCodeLine line = m.programLines[m.codeReference[pc]];
+      s += " (" + (line.mnemonic.trim() + " " + line.operandToken.trim()).trim() + ")";
+    }
+    return s;
+  } // where()
+
+
+  void report(String finding) {
+    findings++;
+    report.println(prefix + finding);
+  } // report()
+} // Sanitizer
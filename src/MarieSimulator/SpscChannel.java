@@ -0,0 +1,147 @@
+// File:        SpscChannel.java
+// JDK Version: 9
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+public class SpscChannel {
+/******************************************************************************************
+*  A queue of int values from exactly one producer thread to exactly one consumer         *
+*  thread, used to couple a machine's INPUT and OUTPUT instructions to an Interactor      *
+*  running in the same JVM (see InteractiveRun).                                          *
+*                                                                                         *
+*  The values are kept in a ring buffer.  The producer alone advances tail and the        *
+*  consumer alone advances head, so neither needs a lock:  each reads the other's         *
+*  counter to see whether there is something to take or room to put.  A thread that has  *
+*  to wait spins briefly first, since in an interactive exchange the answer usually       *
+*  comes within microseconds, and then parks.  The other side unparks it after moving     *
+*  its counter.                                                                           *
+*                                                                                         *
+*  close() may be called from either side.  Once the channel is closed, take() throws     *
+*  NoSuchElementException when it runs out of values (just as IntScanner does at the end  *
+*  of its input) and put() discards its value.                                            *
+*                                                                                         *
+*  A consumer that mustn't hold its thread while it waits (a machine run in quanta by a   *
+*  MachineScheduler) asks whenReady() for a callback instead of calling take().           *
+******************************************************************************************/
+  static final int CAPACITY = 1024;           // Must be a power of 2.
+  static final int SPINS                      // Tries before a waiting thread parks.  On
+     = (Runtime.getRuntime().availableProcessors() > 1) ? 2000 : 0;  // one CPU, spinning
+                                              // only keeps the other side from running.
+
+  final int[]      buffer = new int[CAPACITY];
+  final AtomicLong   head = new AtomicLong(); // Next value to take,
+  final AtomicLong   tail = new AtomicLong(); // and next slot to put into.
+  volatile Thread  waiter = null;             // The thread parked (or about to park), if any.
+  volatile boolean closed = false;
+  final AtomicReference onReady = new AtomicReference();  // Callback from whenReady().
+
+  public void put(int value) {
+/******************************************************************************************
+*  Adds value to the channel, waiting while it is full.  Called by the producer only.     *
+******************************************************************************************/
+    long t = tail.get();
+    for (int spins = 0; !closed && (t - head.get() == CAPACITY); spins++)
+      pause(spins);
+    waited();
+    if (closed)
+      return;
+    buffer[(int) (t & (CAPACITY-1))] = value;
+    tail.set(t+1);
+    wake();
+  } // put()
+
+
+  public int take() {
+/******************************************************************************************
+*  Removes and returns the oldest value, waiting while there is none.  Called by the      *
+*  consumer only.                                                                         *
+******************************************************************************************/
+    long h = head.get();
+    for (int spins = 0; h == tail.get(); spins++) {
+      if (closed && (h == tail.get()))
+        throw new NoSuchElementException();
+      pause(spins);
+    } // for
+    waited();
+    int value = buffer[(int) (h & (CAPACITY-1))];
+    head.set(h+1);
+    wake();
+    return value;
+  } // take()
+
+
+  public void close() {
+    closed = true;
+    wake();
+  } // close()
+
+
+  public boolean isClosed() {
+    return closed;
+  } // isClosed()
+
+
+  public boolean isReady() {
+/******************************************************************************************
+*  Whether take() would return at once, with a value or (the channel being closed and     *
+*  empty) by throwing.  Called by the consumer only.                                      *
+******************************************************************************************/
+    return (head.get() != tail.get()) || closed;
+  } // isReady()
+
+
+  public void whenReady(Runnable action) {
+/******************************************************************************************
+*  Runs action once, as soon as take() wouldn't wait:  at once, on this thread, if it     *
+*  already wouldn't, otherwise on the thread that puts the next value or closes the       *
+*  channel.  Called by the consumer only.  We set onReady before looking at the counters  *
+*  and the producer moves its counter before looking at onReady (as for waiter), and      *
+*  whichever of us takes the action out of onReady runs it.                               *
+******************************************************************************************/
+    onReady.set(action);
+    if (isReady())
+      fire();
+  } // whenReady()
+
+
+  void fire() {
+    Runnable action = (Runnable) onReady.getAndSet(null);
+    if (action != null)
+      action.run();
+  } // fire()
+
+
+  void pause(int spins) {
+/******************************************************************************************
+*  Waits a little for the other side.  Before parking for the first time we set waiter    *
+*  and return, so that the caller looks at the counters (and closed) once more:  the      *
+*  other side writes its counter before it reads waiter, so either we see the change     *
+*  or it sees us and unparks us.                                                          *
+******************************************************************************************/
+    if (spins < SPINS)
+      Thread.onSpinWait();
+    else if (waiter != Thread.currentThread())
+      waiter = Thread.currentThread();
+    else
+      LockSupport.park(this);
+  } // pause()
+
+
+  void waited() {
+    if (waiter == Thread.currentThread())
+      waiter = null;
+  } // waited()
+
+
+  void wake() {
+    Thread t = waiter;
+    if (t != null)
+      LockSupport.unpark(t);
+    if (onReady.get() != null)
+      fire();
+  } // wake()
+} // SpscChannel
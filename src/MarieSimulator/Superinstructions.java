@@ -0,0 +1,202 @@
+// File:        Superinstructions.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+
+class Superinstructions {
+/******************************************************************************************
+*  Each MARIE instruction does very little, so a run spends most of its time fetching,    *
+*  decoding and dispatching rather than doing the work itself.  When a program is         *
+*  loaded, this class looks for a few sequences that students write over and over and     *
+*  runs each occurrence as one "superinstruction":                                        *
+*                                                                                         *
+*     LOAD_OP_STORE     LOAD X / ADD|SUBT Y / STORE Z                                     *
+*     LOAD_OP_SKIP      LOAD X / ADD|SUBT Y / SKIPCOND c                                  *
+*     SKIP_JUMP         SKIPCOND c / JUMP T                                               *
+*     OP_RETURN         LOAD|STORE|ADD|SUBT X / JUMPI R, where R is the operand of a JnS  *
+*                                                                                         *
+*  A fused sequence is fetched and dispatched once and sets the registers once, with      *
+*  the values the last of its instructions would have left in them.  Everything else a    *
+*  run can see comes out just as it would have:  memory, the instruction and cycle        *
+*  counts, the recent-PC ring and the monitor focus.                                      *
+*                                                                                         *
+*  A sequence is only fused if its own STOREs can't change it.  If anything else writes   *
+*  one of its words (self-modifying code), writeMemory() calls written() and the          *
+*  sequence goes back to being run one instruction at a time.                             *
+*                                                                                         *
+*  The number of times each form fired is handed to MarieMetrics at the end of each run, *
+*  so a judge server started with -fuse reports the totals over all the programs it has   *
+*  run.                                                                                   *
+******************************************************************************************/
+  static final byte     NONE = 0,
+               LOAD_OP_STORE = 1,
+                LOAD_OP_SKIP = 2,
+                   SKIP_JUMP = 3,
+                   OP_RETURN = 4;
+  static final String[] FORM_NAMES = { "load_op_store", "load_op_skip", "skip_jump",
+                                       "op_return" };  // Indexed by form - 1.
+  static final int[]    FORM_LENGTH = { 0, 3, 3, 2, 2 };
+  static final int      MAX_LENGTH = 3;
+
+  byte[]     form = new byte[MarieSim.MAX_MARIE_ADDR+1];  // Form starting at each address.
+  long[]    fired = new long[FORM_NAMES.length];          // Since the last flushTo(),
+  long     deopts = 0;                                    // as are forms undone by writes.
+
+  Superinstructions(short[] memory) {
+/******************************************************************************************
+*  Finds the sequences to fuse in a freshly loaded memory image.  Sequences may overlap;  *
+*  whichever one the PC arrives at first is the one that runs.                            *
+******************************************************************************************/
+    boolean[] returnSlot = new boolean[MarieSim.MAX_MARIE_ADDR+1];
+    for (int addr = 0; addr <= MarieSim.MAX_MARIE_ADDR; addr++)
+      if (opcode(memory[addr]) == 0)                        // JnS
+        returnSlot[operand(memory[addr])] = true;
+    for (int addr = 0; addr + MAX_LENGTH <= MarieSim.MAX_MARIE_ADDR; addr++) {
+      int op0 = opcode(memory[addr]),
+          op1 = opcode(memory[addr+1]),
+          op2 = opcode(memory[addr+2]);
+      if ((op0 == 1) && ((op1 == 3) || (op1 == 4))) {
+        if ((op2 == 2) && ((operand(memory[addr+2]) < addr)
+                           || (operand(memory[addr+2]) > addr + 2)))
+          form[addr] = LOAD_OP_STORE;
+        else if ((op2 == 8) && (condition(memory[addr+2]) != 3))
+          form[addr] = LOAD_OP_SKIP;
+      }
+      else if ((op0 == 8) && (condition(memory[addr]) != 3) && (op1 == 9))
+        form[addr] = SKIP_JUMP;
+      else if ((op0 >= 1) && (op0 <= 4) && (op1 == 12) && returnSlot[operand(memory[addr+1])]
+               && ((op0 != 2) || (operand(memory[addr]) < addr)
+                              || (operand(memory[addr]) > addr + 1)))
+        form[addr] = OP_RETURN;
+    } // for
+  } // Superinstructions()
+
+
+  static int opcode(int word)    { return (word >> 12) & 0x000F; }
+
+  static int operand(int word)   { return word & 0x0FFF; }
+
+  static int condition(int word) { return (word & 0x0C00) >> 10; }
+
+
+  void written(int addr) {
+/******************************************************************************************
+*  Called by writeMemory() for every store:  unfuses any sequence covering addr.          *
+******************************************************************************************/
+    for (int start = Math.max(0, addr - MAX_LENGTH + 1); start <= addr; start++)
+      if ((form[start] != NONE) && (start + FORM_LENGTH[form[start]] > addr)) {
+        form[start] = NONE;
+        deopts++;
+      }
+  } // written()
+
+
+  boolean execute(MarieSim m) {
+/******************************************************************************************
+*  Runs the sequence fused at m's PC, if there is one, and returns true.  Returns false   *
+*  if there isn't, or if it might take m past its instruction or cycle limit, so that     *
+*  the next instruction is run in the ordinary way.                                       *
+******************************************************************************************/
+    int pc = m.regPC.getValue();
+    byte f = form[pc];
+    if ((f == NONE) || ((m.instructionLimit > 0)
+                        && (m.instructionCount + FORM_LENGTH[f] > m.instructionLimit))
+        || ((m.cycleLimit > 0)
+            && (m.cycleCount + FORM_LENGTH[f] * MarieSim.MAX_CYCLES > m.cycleLimit)))
+      return false;
+    short[] memory = m.memory;
+    int w0 = memory[pc],
+        w1 = memory[pc+1];
+    switch (f) {
+      case LOAD_OP_STORE:
+      case LOAD_OP_SKIP:
+        int w2 = memory[pc+2],
+            y = memory[operand(w1)],
+            ac = (short) ((opcode(w1) == 3) ? memory[operand(w0)] + y
+                                            : memory[operand(w0)] - y);
+        fetched(m, pc, true, operand(w0));
+        fetched(m, pc+1, true, operand(w1));
+        fetched(m, pc+2, f == LOAD_OP_STORE, operand(w2));
+        m.regAC.setValue(ac);
+        m.regIR.setValue(w2);
+        if (f == LOAD_OP_STORE) {
+          m.instructionCode = 2;
+          m.regMAR.setValue(operand(w2));
+          m.regMBR.setValue(ac);
+          m.regPC.setValue(pc+3);
+          m.writeMemory(operand(w2), ac);
+        }
+        else {
+          m.instructionCode = 8;
+          m.regMAR.setValue(pc+2);
+          m.regMBR.setValue(y);
+          m.regPC.setValue(CountingLoop.passes(ac, condition(w2)) ? pc+4 : pc+3);
+        }
+        break;
+      case SKIP_JUMP:
+        fetched(m, pc, false, 0);
+        if (CountingLoop.passes(m.regAC.getValue(), condition(w0))) {
+          m.regIR.setValue(w0);                 // Skipped the JUMP, so really only one
+          m.instructionCode = 8;                // instruction, but still one dispatch.
+          m.regMAR.setValue(pc);
+          m.regPC.setValue(pc+2);
+        }
+        else {
+          fetched(m, pc+1, false, 0);
+          m.regIR.setValue(w1);
+          m.instructionCode = 9;
+          m.regMAR.setValue(pc+1);
+          m.regPC.setValue(operand(w1));
+        }
+        break;
+      case OP_RETURN:
+        int x = operand(w0),
+            r = operand(w1);
+        fetched(m, pc, true, x);
+        fetched(m, pc+1, true, r);
+        switch (opcode(w0)) {
+          case 1: m.regAC.setValue(memory[x]);
+                  break;
+          case 2: m.writeMemory(x, m.regAC.getValue());
+                  break;
+          case 3: m.regAC.setValue(m.regAC.getValue() + memory[x]);
+                  break;
+          default: m.regAC.setValue(m.regAC.getValue() - memory[x]);
+        } // switch
+        m.regIR.setValue(w1);
+        m.instructionCode = 12;
+        m.regMAR.setValue(r);
+        m.regMBR.setValue(memory[r]);           // After the STORE, which may be to R.
+        m.regPC.setValue(memory[r]);
+        break;
+    } // switch
+    fired[f-1]++;
+    m.errorFound = false;
+    return true;
+  } // execute()
+
+
+  static void fetched(MarieSim m, int addr, boolean hasOperand, int operand) {
+/******************************************************************************************
+*  Does the bookkeeping fetchNext() does for the instruction at addr, apart from setting  *
+*  registers.                                                                             *
+******************************************************************************************/
+    m.pcHistory[(int) (m.pcHistoryCount++ & (MarieSim.PC_HISTORY-1))] = addr;
+    if (m.codeReference[addr] >= 0)
+      m.programFocusRow = m.codeReference[addr];
+    if (hasOperand)
+      m.memoryFocusCell = operand;
+    m.instructionCount++;
+    m.cycleCount += MarieSim.CYCLES[opcode(m.memory[addr])];
+  } // fetched()
+
+
+  void flushTo(MarieMetrics metrics) {
+/******************************************************************************************
+*  Hands the counts gathered since the last call over to metrics.                         *
+******************************************************************************************/
+    metrics.recordFusion(fired, deopts);
+    fired = new long[FORM_NAMES.length];
+    deopts = 0;
+  } // flushTo()
+} // Superinstructions
@@ -0,0 +1,129 @@
+// File:        SymbolMap.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+public class SymbolMap {
+/******************************************************************************************
+*  A SymbolMap gives symbolic names to MARIE memory addresses.  It is filled from the     *
+*  statement labels of the program as it is loaded, and then from the assembler's        *
+*  symbol table file (<program>.map) if there is one.  Labels are looked up by name       *
+*  through a hash index; addresses are looked up through a plain array indexed by         *
+*  address so that tracers and profilers can name addresses cheaply.                      *
+*                                                                                         *
+*  The .map file is read leniently:  any line whose first two fields (separated by        *
+*  blanks or '|') are a label and a hexadecimal address defines that label.  Titles,      *
+*  column headings, rules and reference lists are ignored.                                *
+******************************************************************************************/
+  HashMap   addressByLabel = new HashMap();                 // Label -> Integer address.
+  String[]  labelByAddress = new String[MarieSim.MAX_MARIE_ADDR+1];
+
+  public void define(String label, int addr) {
+/******************************************************************************************
+*  Records label as the name of addr.  Later definitions of the same label win, so the    *
+*  .map file can correct labels read from the program.                                    *
+******************************************************************************************/
+    if ((label == null) || (addr < 0) || (addr > MarieSim.MAX_MARIE_ADDR))
+      return;
+    label = label.trim();
+    if (label.length() == 0)
+      return;
+    Integer previous = (Integer) addressByLabel.put(label, Integer.valueOf(addr));
+    if ((previous != null) && label.equals(labelByAddress[previous.intValue()]))
+      labelByAddress[previous.intValue()] = null;
+    labelByAddress[addr] = label;
+  } // define()
+
+
+  public int addressOf(String label) {
+/******************************************************************************************
+*  Returns the address of label, or -1 if no such label is defined.                       *
+******************************************************************************************/
+    Integer addr = (Integer) addressByLabel.get(label);
+    if (addr == null)
+      return -1;
+    return addr.intValue();
+  } // addressOf()
+
+
+  public String labelAt(int addr) {
+/******************************************************************************************
+*  Returns the label defined at addr, or null.                                            *
+******************************************************************************************/
+    if ((addr < 0) || (addr > MarieSim.MAX_MARIE_ADDR))
+      return null;
+    return labelByAddress[addr];
+  } // labelAt()
+
+
+  public String nameFor(int addr) {
+/******************************************************************************************
+*  Returns addr as "label" or "label+offset" (offset in hex) relative to the nearest      *
+*  label at or below it, or null if there is no label below addr.                         *
+******************************************************************************************/
+    if ((addr < 0) || (addr > MarieSim.MAX_MARIE_ADDR))
+      return null;
+    for (int base = addr; base >= 0; base--)
+      if (labelByAddress[base] != null) {
+        if (base == addr)
+          return labelByAddress[base];
+        return labelByAddress[base] + "+" + Integer.toHexString(addr - base).toUpperCase();
+      }
+    return null;
+  } // nameFor()
+
+
+  public int size() { return addressByLabel.size(); }
+
+
+  public void read(Reader mapFile) throws IOException {
+/******************************************************************************************
+*  Adds the labels defined in a .map file to this map.                                    *
+******************************************************************************************/
+    BufferedReader in = new BufferedReader(mapFile);
+    String line;
+    while ((line = in.readLine()) != null) {
+      StringTokenizer fields = new StringTokenizer(line, " \t|:,");
+      if (fields.countTokens() < 2)
+        continue;
+      String label = fields.nextToken();
+      String addrStr = fields.nextToken();
+      if (!Character.isLetter(label.charAt(0)) || (addrStr.length() > 3))
+        continue;
+      try {
+        define(label, Integer.parseInt(addrStr, 16));
+      }
+      catch (NumberFormatException e) {         // Headings such as "Symbol Table".
+      }
+    } // while
+  } // read()
+
+
+  public static SymbolMap forDump(String dumpFile) {
+/******************************************************************************************
+*  Returns the symbols in the .map file that goes with a .dmp file, or null if there      *
+*  isn't one.                                                                             *
+******************************************************************************************/
+    if (!dumpFile.endsWith(MarieSim.DMP_TYPE))
+      return null;
+    String mapFile = dumpFile.substring(0, dumpFile.length() - MarieSim.DMP_TYPE.length())
+                     + MarieSim.MAP_TYPE;
+    SymbolMap symbols = new SymbolMap();
+    try {
+      Reader fileIn = new FileReader(mapFile);
+      try {
+        symbols.read(fileIn);
+      }
+      finally {
+        fileIn.close();
+      }
+    }
+    catch (IOException e) {                      // No symbol table available.
+      return null;
+    }
+    return symbols;
+  } // forDump()
+} // SymbolMap
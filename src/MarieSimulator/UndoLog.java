@@ -0,0 +1,159 @@
+// File:        UndoLog.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+
+class UndoLog {
+/******************************************************************************************
+*  What the last instructions executed changed, so that MarieSim.stepBack() can undo     *
+*  them one at a time.  An instruction changes at most the PC, the AC and one word of     *
+*  memory (STORE, STOREI and JnS) or the bank register (BANK, on an extended machine),    *
+*  so each entry is the PC and AC from before the instruction and, if it wrote memory,    *
+*  the address and the word's old value (or the old bank).  Entries are kept in          *
+*  parallel arrays used as a ring, so logging an instruction and undoing one each take    *
+*  constant time and no allocation.  Once the ring is full, the oldest entries are        *
+*  forgotten.                                                                             *
+*                                                                                         *
+*  Nothing else needs logging, because undoing is done newest first:  when an entry is    *
+*  undone the machine is in the state that instruction left it in.  So the value an       *
+*  INPUT read is in the AC, and the opcode is in memory at the entry's PC once the word   *
+*  it wrote is put back.  The values of INPUTs that were undone are kept on a stack and   *
+*  read again, in the same order, by the INPUTs that run next, so stepping back and then  *
+*  forward again gives the same run.  (OUTPUTs that are undone and run again print        *
+*  again.)                                                                                *
+*                                                                                         *
+*  An entry is opened by begin() before the fetch and kept by commit() once the           *
+*  instruction has run (and been counted).  An instruction that can't even be fetched    *
+*  (an invalid opcode) is never committed, and its open entry is what is undone first.   *
+******************************************************************************************/
+  static final int DEFAULT_CAPACITY = 1 << 16;   // Entries; must be a power of 2.
+  static final int   NO_WRITE = -1,          // Address of an entry that wrote nothing,
+                   INPUT_READ = -2,          // of an INPUT that read a value, or of a
+                     BANK_SET = -3;          // BANK (with the old bank as its word).
+
+  int      capacity;
+  short[]      pcs,                          // Per entry:  PC and AC before the
+               acs,                          // instruction, and the address it wrote
+             words;                          // (NO_WRITE, INPUT_READ or BANK_SET if none)
+  int[]      addrs;                          // with the value that was there.
+  long         top = 0;                      // Entries ever committed,
+  int         size = 0;                      // of which the newest size are kept.
+  boolean     open = false;                  // An entry has been begun at index top.
+  int[]     replay = null;                   // Values of undone INPUTs, next on top.
+  int  replayCount = 0;
+
+  UndoLog() {
+    this(DEFAULT_CAPACITY);
+  } // UndoLog()
+
+
+  UndoLog(int capacity) {
+    this.capacity = capacity;
+    pcs = new short[capacity];
+    acs = new short[capacity];
+    addrs = new int[capacity];
+    words = new short[capacity];
+  } // UndoLog()
+
+
+  void clear() {
+/******************************************************************************************
+*  Forgets everything, e.g., when a program is loaded or restarted.                       *
+******************************************************************************************/
+    top = 0;
+    size = 0;
+    open = false;
+    replayCount = 0;
+  } // clear()
+
+
+  void begin(int pc, int ac) {
+    int i = (int) (top & (capacity-1));
+    pcs[i] = (short) pc;
+    acs[i] = (short) ac;
+    addrs[i] = NO_WRITE;
+    open = true;
+  } // begin()
+
+
+  void written(int addr, int oldValue) {
+/******************************************************************************************
+*  Called by writeMemory().  Only writes made by the instruction being logged count.      *
+******************************************************************************************/
+    if (open) {
+      int i = (int) (top & (capacity-1));
+      addrs[i] = addr;
+      words[i] = (short) oldValue;
+    }
+  } // written()
+
+
+  void inputRead() {
+    addrs[(int) (top & (capacity-1))] = INPUT_READ;
+  } // inputRead()
+
+
+  void bankSet(int oldBank) {
+    int i = (int) (top & (capacity-1));
+    addrs[i] = BANK_SET;
+    words[i] = (short) oldBank;
+  } // bankSet()
+
+
+  void commit() {
+    top++;
+    if (size < capacity-1)                     // The slot after the newest is where the
+      size++;                                  // next entry is begun.
+    open = false;
+  } // commit()
+
+
+  boolean undo(MarieSim m) {
+/******************************************************************************************
+*  Puts m back into the state it was in before the newest instruction logged (the open   *
+*  one, if there is one), and returns false if there is nothing left to undo.             *
+******************************************************************************************/
+    boolean committed = !open;
+    if (committed) {
+      if (size == 0)
+        return false;
+      top--;
+      size--;
+    }
+    open = false;
+    int i = (int) (top & (capacity-1));
+    if (addrs[i] >= 0)
+      m.writeMemory(addrs[i], words[i]);
+    else if (addrs[i] == INPUT_READ) {           // Read the value again next time.
+      if (replay == null)
+        replay = new int[capacity];
+      if (replayCount < capacity)
+        replay[replayCount++] = m.regAC.getValue();
+    }
+    else if (addrs[i] == BANK_SET)
+      m.bank = words[i];
+    int opcode = (m.memory[pcs[i]] >> 12) & 0x000F;
+    if (opcode == 5)
+      m.inputCount--;
+    else if (opcode == 6)
+      m.outputCount--;
+    if (committed) {
+      m.instructionCount--;
+      m.cycleCount -= MarieSim.CYCLES[opcode];
+    }
+    m.pcHistoryCount--;
+    m.regAC.setValue(acs[i]);
+    m.regPC.setValue(pcs[i]);
+    return true;
+  } // undo()
+
+
+  boolean hasReplay() {
+    return replayCount > 0;
+  } // hasReplay()
+
+
+  int replay() {
+    return replay[--replayCount];
+  } // replay()
+} // UndoLog
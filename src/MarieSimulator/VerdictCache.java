@@ -0,0 +1,305 @@
+// File:        VerdictCache.java
+// JDK Version: 9
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+@SuppressWarnings("unchecked") // This line is needed because we are not using generics.
+
+class VerdictCache {
+/******************************************************************************************
+*  A directory of the outcomes of past runs, so that a run that has been made before      *
+*  (a rejudge, an identical resubmission, a test input shared between problems) can be    *
+*  answered without executing it.  A MARIE run is a function of its program image, its    *
+*  input and the options that change how it ends, so those are hashed (SHA-256) into the  *
+*  key, and the file named by the key holds everything the run produced:  its final       *
+*  machine state, error code and instruction count, and its output with a digest of it.   *
+*  The digest is checked whenever an entry is read, so a damaged file is a miss, never a  *
+*  wrong answer.                                                                          *
+*                                                                                         *
+*  Only runs that ended on their own are stored:  a run stopped by a timeout (or          *
+*  stop()) depends on how fast the host was.  Neither the timeout nor -fastloops and      *
+*  -fuse are part of the key, since they can't change the outcome of a run that ends.    *
+*  Runs whose output is longer than MAX_OUTPUT are not stored either;  a Recorder copies  *
+*  the output of a run as it is written and gives up past that length.                   *
+*                                                                                         *
+*  The directory is kept under maxBytes by deleting the least recently used entries.     *
+*  Recency is the file's modification time, which get() refreshes, so it survives a       *
+*  restart:  the constructor rebuilds the in-memory index from the directory in that      *
+*  order.  Entries are written to a temporary file and renamed into place, so several     *
+*  processes may share a directory;  each only evicts what it knows about.               *
+*                                                                                         *
+*  Hits and misses are counted in MarieMetrics.                                           *
+******************************************************************************************/
+  static final String TYPE       = ".verdict";      // File extension of an entry.
+  static final int    MAGIC      = 0x4D564431;      // "MVD1"
+  static final int    MAX_OUTPUT = 1 << 20;         // Bytes.
+  static final long   DEFAULT_MAX_BYTES = 256L << 20;
+
+  File         directory;
+  long          maxBytes;
+  long        totalBytes = 0;
+  LinkedHashMap    index = new LinkedHashMap(256, 0.75f, true);  // Key -> Long file size,
+                                                                 // least recently used first.
+
+  static class Verdict {
+/******************************************************************************************
+*  The outcome of one run.                                                                *
+******************************************************************************************/
+    int      machineState;
+    int         errorCode;
+    long instructionCount;
+    byte[]         output;
+  } // Verdict
+
+
+  static class Recorder extends FilterOutputStream {
+/******************************************************************************************
+*  Passes a run's output on to where it is going and keeps a copy of it for the cache,    *
+*  up to MAX_OUTPUT bytes.                                                                *
+******************************************************************************************/
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    Recorder(OutputStream target) {
+      super(target);
+    } // Recorder()
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (copy != null)
+        copy.write(b);
+      overflow();
+    } // write()
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (copy != null)
+        copy.write(b, off, len);
+      overflow();
+    } // write()
+
+    void overflow() {
+      if ((copy != null) && (copy.size() > MAX_OUTPUT))
+        copy = null;                           // Too long to store.
+    } // overflow()
+
+    byte[] recorded() {                        // Null if there was too much.
+      return (copy == null) ? null : copy.toByteArray();
+    } // recorded()
+  } // Recorder
+
+
+  VerdictCache(File directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Can't create " + directory);
+    File[] files = directory.listFiles();
+    Arrays.sort(files, new Comparator() {
+      public int compare(Object a, Object b) {
+        long ta = ((File) a).lastModified(),
+             tb = ((File) b).lastModified();
+        return (ta < tb) ? -1 : ((ta == tb) ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < files.length; i++) {
+      String name = files[i].getName();
+      if (name.endsWith(TYPE)) {
+        index.put(name.substring(0, name.length() - TYPE.length()),
+                  Long.valueOf(files[i].length()));
+        totalBytes += files[i].length();
+      }
+      else if (name.endsWith(".tmp"))         // Left by a process that died mid-write.
+        files[i].delete();
+    } // for
+    evict();
+  } // VerdictCache()
+
+
+  static String key(byte[] program, byte[] input, MarieSim machine) {
+/******************************************************************************************
+*  The key of a run of program on input by machine, which must be configured (limits,     *
+*  LoopDetector, Sanitizer, extended memory) as it will be for the run.                   *
+******************************************************************************************/
+    MessageDigest sha = sha256();
+    String options = "limit=" + machine.instructionLimit
+                     + " cycles=" + machine.cycleLimit
+                     + " loopcheck=" + (machine.loopDetector != null)
+                     + " sanitize=" + (machine.sanitizer != null)
+                     + " extended=" + ((machine.extendedMemory == null)
+                                          ? 0 : machine.extendedMemory.size);
+    update(sha, options.getBytes());
+    update(sha, program);
+    update(sha, input);
+    return hex(sha.digest());
+  } // key()
+
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {       // Every JDK has SHA-256.
+      throw new IllegalStateException(e.toString());
+    }
+  } // sha256()
+
+
+  static void update(MessageDigest sha, byte[] bytes) {
+    int n = bytes.length;                      // Length first, so that no two sequences
+    sha.update(new byte[] { (byte) (n >> 24), (byte) (n >> 16),  // of parts hash alike.
+                            (byte) (n >> 8), (byte) n });
+    sha.update(bytes);
+  } // update()
+
+
+  static String hex(byte[] bytes) {
+    StringBuffer sb = new StringBuffer(2 * bytes.length);
+    for (int i = 0; i < bytes.length; i++)
+      sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16))
+        .append(Character.forDigit(bytes[i] & 0xF, 16));
+    return sb.toString();
+  } // hex()
+
+
+  Verdict get(String key) {
+/******************************************************************************************
+*  Returns the stored outcome of the run with key, or null if there is none (or it can't  *
+*  be read).                                                                              *
+******************************************************************************************/
+    synchronized (this) {
+      if (!index.containsKey(key)) {
+        MarieMetrics.global.recordCacheLookup(false);
+        return null;
+      }
+      index.get(key);                          // Now the most recently used.
+    }
+    File file = new File(directory, key + TYPE);
+    Verdict verdict = null;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                                  new FileInputStream(file)));
+      try {
+        verdict = read(in);
+      }
+      finally {
+        in.close();
+      }
+      file.setLastModified(System.currentTimeMillis());
+    }
+    catch (IOException e) {                    // Gone, or damaged.
+      verdict = null;
+    }
+    if (verdict == null)
+      remove(key);
+    MarieMetrics.global.recordCacheLookup(verdict != null);
+    return verdict;
+  } // get()
+
+
+  static Verdict read(DataInputStream in) throws IOException {
+/******************************************************************************************
+*  Reads an entry, returning null if it isn't a valid one.                                *
+******************************************************************************************/
+    if (in.readInt() != MAGIC)
+      return null;
+    Verdict verdict = new Verdict();
+    verdict.machineState = in.readInt();
+    verdict.errorCode = in.readInt();
+    verdict.instructionCount = in.readLong();
+    byte[] digest = new byte[in.readUnsignedByte()];
+    in.readFully(digest);
+    int length = in.readInt();
+    if ((length < 0) || (length > MAX_OUTPUT))
+      return null;
+    verdict.output = new byte[length];
+    in.readFully(verdict.output);
+    if (!MessageDigest.isEqual(digest, sha256().digest(verdict.output)))
+      return null;
+    return verdict;
+  } // read()
+
+
+  void put(String key, Verdict verdict) {
+/******************************************************************************************
+*  Stores the outcome of a run (see outcome()).  Failing to store it only costs a         *
+*  later miss, so I/O errors are ignored.                                                 *
+******************************************************************************************/
+    File temp = new File(directory, key + TYPE + "." + Thread.currentThread().getId() + ".tmp");
+    File file = new File(directory, key + TYPE);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                                    new FileOutputStream(temp)));
+      try {
+        byte[] digest = sha256().digest(verdict.output);
+        out.writeInt(MAGIC);
+        out.writeInt(verdict.machineState);
+        out.writeInt(verdict.errorCode);
+        out.writeLong(verdict.instructionCount);
+        out.writeByte(digest.length);
+        out.write(digest);
+        out.writeInt(verdict.output.length);
+        out.write(verdict.output);
+      }
+      finally {
+        out.close();
+      }
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        return;
+      }
+    }
+    catch (IOException e) {
+      temp.delete();
+      return;
+    }
+    synchronized (this) {
+      Long old = (Long) index.put(key, Long.valueOf(file.length()));
+      if (old != null)
+        totalBytes -= old.longValue();
+      totalBytes += file.length();
+      evict();
+    }
+  } // put()
+
+
+  synchronized void remove(String key) {
+    Long size = (Long) index.remove(key);
+    if (size != null)
+      totalBytes -= size.longValue();
+    new File(directory, key + TYPE).delete();
+  } // remove()
+
+
+  synchronized void evict() {
+/******************************************************************************************
+*  Deletes least recently used entries until the directory fits in maxBytes.              *
+******************************************************************************************/
+    Iterator i = index.entrySet().iterator();
+    while ((totalBytes > maxBytes) && i.hasNext()) {
+      Map.Entry entry = (Map.Entry) i.next();
+      totalBytes -= ((Long) entry.getValue()).longValue();
+      new File(directory, entry.getKey() + TYPE).delete();
+      i.remove();
+      MarieMetrics.global.recordCacheEviction();
+    } // while
+  } // evict()
+
+
+  static Verdict outcome(MarieSim machine, byte[] output) {
+/******************************************************************************************
+*  The Verdict of a run just made on machine that wrote output, or null if it mustn't be  *
+*  stored:  the run didn't end on its own, or its output was too long to keep.            *
+******************************************************************************************/
+    if (((machine.machineState != MarieSim.MARIE_HALTED_NORMAL)
+          && (machine.machineState != MarieSim.MARIE_HALTED_ABNORMAL)) || (output == null))
+      return null;
+    Verdict verdict = new Verdict();
+    verdict.machineState = machine.machineState;
+    verdict.errorCode = machine.errorCode;
+    verdict.instructionCount = machine.instructionCount;
+    verdict.output = output;
+    return verdict;
+  } // outcome()
+} // VerdictCache
@@ -0,0 +1,114 @@
+// File:        Warmup.java
+// JDK Version: 5.0
+// Notice:      This code may be freely used for noncommercial purposes.
+package MarieSimulator;
+import java.io.*;
+
+class Warmup {
+/******************************************************************************************
+*  A built-in program that uses every MARIE instruction, run a number of times so that    *
+*  the JIT compiles the loader and the fetch-execute cycle before a real program runs.    *
+*  It also serves as the training run when a class-data-sharing archive is made (see      *
+*  dist/make-cds.sh), so that every class a run needs is in the archive.                  *
+*                                                                                         *
+*  The program reads a value, adds one, calls a subroutine that returns it, goes through  *
+*  LOADI, ADDI and STOREI, clears and outputs, and counts down to a HALT.  Output goes    *
+*  nowhere, and the metrics counters are reset afterwards so that warm-up runs don't      *
+*  show up in them.                                                                       *
+******************************************************************************************/
+  static final int ROUNDS = 40;              // Runs of the program,
+  static final int TRIPS  = 500;             // each going this many times round its loop.
+  static final long INSTRUCTIONS = 16L * TRIPS;  // Executed by each run (16 a trip).
+
+  static final String[][] PROGRAM = {        // Label, mnemonic, operand, word.
+    { "Top",   "INPUT",    "",      "5000" },
+    { "",      "ADD",      "One",   "3012" },
+    { "",      "STORE",    "Tmp",   "2013" },
+    { "",      "JNS",      "Sub",   "000F" },
+    { "",      "LOADI",    "Ptr",   "D014" },
+    { "",      "ADDI",     "Ptr",   "B014" },
+    { "",      "STOREI",   "Ptr",   "E014" },
+    { "",      "CLEAR",    "",      "A000" },
+    { "",      "OUTPUT",   "",      "6000" },
+    { "",      "LOAD",     "Count", "1015" },
+    { "",      "SUBT",     "One",   "4012" },
+    { "",      "STORE",    "Count", "2015" },
+    { "",      "SKIPCOND", "400",   "8400" },
+    { "",      "JUMP",     "Top",   "9000" },
+    { "",      "HALT",     "",      "7000" },
+    { "Sub",   "HEX",      "0",     "0000" },
+    { "",      "LOAD",     "Tmp",   "1013" },
+    { "",      "JUMPI",    "Sub",   "C00F" },
+    { "One",   "DEC",      "1",     "0001" },
+    { "Tmp",   "DEC",      "0",     "0000" },
+    { "Ptr",   "HEX",      "013",   "0013" },
+    { "Count", "DEC",      "",      null   } };  // TRIPS
+
+  static byte[] program() throws IOException {
+/******************************************************************************************
+*  Returns the program as the bytes of a .mex file.                                       *
+******************************************************************************************/
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+    for (int addr = 0; addr < PROGRAM.length; addr++) {
+      AssembledCodeLine line = new AssembledCodeLine();
+      String word = (PROGRAM[addr][3] != null) ? PROGRAM[addr][3]
+                                                : hex(TRIPS, 4);
+      line.lineNo = hex(addr, 3);
+      line.stmtLabel = PROGRAM[addr][0];
+      line.mnemonic = PROGRAM[addr][1];
+      line.operandToken = PROGRAM[addr][2];
+      line.hexCode = word.substring(0, 1);
+      line.operand = word.substring(1);
+      objOut.writeObject(line);
+    } // for
+    objOut.close();
+    return bytes.toByteArray();
+  } // program()
+
+
+  static String hex(int value, int digits) {
+    return Integer.toHexString((1 << (4 * digits)) | value).substring(1).toUpperCase();
+  } // hex()
+
+
+  static boolean run(MarieSim options) {
+/******************************************************************************************
+*  Runs the program ROUNDS times, each on a fresh machine set up with the options (fuse,  *
+*  fastLoops, loop checking) of the machine given.  Returns false if any round failed to  *
+*  halt normally after the instructions it should have taken, i.e., the warm-up (or the   *
+*  training run of an archive) didn't exercise what it was meant to.                      *
+******************************************************************************************/
+    byte[] mex, input;
+    try {
+      mex = program();
+    }
+    catch (IOException e) {                  // Can't happen with byte arrays.
+      return false;
+    }
+    StringBuffer values = new StringBuffer();
+    for (int i = 0; i < TRIPS; i++)
+      values.append(i).append('\n');
+    input = values.toString().getBytes();
+    PrintStream nowhere = new PrintStream(new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+    });
+    boolean ok = true;
+    for (int round = 0; round < ROUNDS; round++) {
+      MarieSim machine = new MarieSim(new ByteArrayInputStream(input), nowhere);
+      machine.fuse = options.fuse;
+      machine.fastLoops = options.fastLoops;
+      if (options.loopDetector != null)
+        machine.loopDetector = new LoopDetector();
+      machine.loadProgram(new ByteArrayInputStream(mex));
+      machine.machineState = MarieSim.MARIE_RUNNING;
+      machine.runProgram();
+      if ((machine.machineState != MarieSim.MARIE_HALTED_NORMAL)
+           || (machine.instructionCount != INSTRUCTIONS))
+        ok = false;
+    } // for
+    MarieMetrics.global.reset();
+    return ok;
+  } // run()
+} // Warmup